@@ -0,0 +1,77 @@
+/*
+ * ActiveRenderingDemo.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Random;
+import doodlepad.*;
+
+/**
+ * Bounce many Shapes using active rendering, printing frame statistics once per second.
+ * Ticks advance the simulation at a fixed 120 per second while frames render at 60 per second.
+ */
+public class ActiveRenderingDemo extends Pad
+{
+    private static final int COUNT = 500;
+    
+    private final Oval[] balls = new Oval[COUNT];
+    private final double[] vx = new double[COUNT];
+    private final double[] vy = new double[COUNT];
+    private long lastReport = 0;
+    
+    public ActiveRenderingDemo()
+    {
+        super("ActiveRenderingDemo", 800, 600);
+        setBackground(0, 0, 0);
+        
+        Random rnd = new Random();
+        for (int i=0; i<COUNT; i++) {
+            balls[i] = new Oval(rnd.nextDouble()*780, rnd.nextDouble()*580, 20, 20);
+            balls[i].setFillColor(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+            balls[i].setStroked(false);
+            vx[i] = rnd.nextDouble()*4.0 - 2.0;
+            vy[i] = rnd.nextDouble()*4.0 - 2.0;
+        }
+        
+        setTickRate(120);
+        setActiveRendering(true, 60);
+        startTimer();
+    }
+    
+    @Override
+    public void onTick(long when) {
+        for (int i=0; i<COUNT; i++) {
+            Oval b = balls[i];
+            if (b.getX() < 0 || b.getX() > getPadWidth() - 20) vx[i] = -vx[i];
+            if (b.getY() < 0 || b.getY() > getPadHeight() - 20) vy[i] = -vy[i];
+            b.move(vx[i], vy[i]);
+        }
+        
+        if (when - lastReport >= 1000) {
+            lastReport = when;
+            System.out.printf("fps %.1f  p50 %.2f ms  p99 %.2f ms  dropped %d%n",
+                getFps(), getFrameTimePercentile(50), getFrameTimePercentile(99), getDroppedFrames());
+        }
+    }
+    
+    public static void main(String[] args) {
+        Util.invokeAndWait(ActiveRenderingDemo::new);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * HitAllocationBenchmark.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import doodlepad.*;
+
+/**
+ * Measure the bytes allocated by hit detection.
+ * The first phase dispatches mouse moves along a continuous path over an unchanged scene,
+ * where the hit image is already current. The MouseEvent objects are created before measuring
+ * begins. Moving within a Shape or within empty space allocates nothing. Moving onto a different
+ * Shape, or off one, allocates a small reference to the Shape now under the mouse, so the
+ * bytes per event depend on how often the path crosses Shape edges.
+ * The second phase moves a Shape before every frame, so each frame repaints the Pad and
+ * each mouse move redraws the whole hit image. Looking up listeners allocates nothing there either,
+ * but repainting and redrawing do: Java2D copies the outline of every stroked Shape into a new path.
+ * That phase reports the bytes allocated per frame for each step.
+ * Requires a JVM that supports com.sun.management.ThreadMXBean.
+ */
+public class HitAllocationBenchmark {
+
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+    private static final int SHAPES = 10000;
+    private static final int EVENTS = 100000;
+    private static final int FRAMES = 200;
+
+    public static void main(String[] args) throws Exception {
+        Util.invokeAndWait(HitAllocationBenchmark::run);
+        System.exit(0);
+    }
+
+    private static void run() {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+
+        Pad pad = new Pad("HitAllocationBenchmark", WIDTH, HEIGHT, false);
+        pad.setHitTestMode(Pad.HitTestMode.IMAGE);
+        Layer layer = pad.getLayer(0);
+        Random rnd = new Random(42);
+        for (int i=0; i<SHAPES; i++) {
+            new Rectangle(rnd.nextDouble()*WIDTH, rnd.nextDouble()*HEIGHT, 5 + rnd.nextDouble()*20, 5 + rnd.nextDouble()*20, layer);
+        }
+
+        // Paint once so that the hit image is marked stale for the whole Pad
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        pad.getContentPane().paint(g);
+        g.dispose();
+
+        // Create all events up front so they are not counted.
+        // The mouse sweeps across the Pad one pixel at a time, row by row.
+        Component canvas = pad.getContentPane().getComponent(0);
+        MouseEvent[] events = new MouseEvent[EVENTS];
+        for (int i=0; i<EVENTS; i++) {
+            int x = i % WIDTH;
+            int y = (i / WIDTH) % HEIGHT;
+            events[i] = new MouseEvent(canvas, MouseEvent.MOUSE_MOVED, 0L, 0, x, y, 0, false);
+        }
+
+        // The first event redraws the hit image and warms up dispatch
+        for (int i=0; i<EVENTS; i++) canvas.dispatchEvent(events[i]);
+
+        long before = mx.getThreadAllocatedBytes(tid);
+        for (int i=0; i<EVENTS; i++) canvas.dispatchEvent(events[i]);
+        long after = mx.getThreadAllocatedBytes(tid);
+
+        System.out.printf("shapes:            %d%n", SHAPES);
+        System.out.printf("mouse events:      %d%n", EVENTS);
+        System.out.printf("bytes allocated:   %d%n", after - before);
+        System.out.printf("bytes per event:   %.3f%n", (double)(after - before) / EVENTS);
+        System.out.printf("hit image redraws: %d%n", pad.getHitImageRebuilds());
+
+        // Each frame changes the scene, repaints, and redraws the hit image on the next mouse move
+        Shape[] shapes = layer.getShapes().toArray(new Shape[0]);
+        for (int i=0; i<FRAMES; i++) frame(pad, canvas, img, shapes[i], events[i]);
+
+        long redrawsBefore = pad.getHitImageRebuilds();
+        long paintBytes = 0;
+        long hitBytes = 0;
+        for (int i=0; i<FRAMES; i++) {
+            shapes[i].move(1, 0);
+            long t0 = mx.getThreadAllocatedBytes(tid);
+            g = img.createGraphics();
+            pad.getContentPane().paint(g);
+            g.dispose();
+            long t1 = mx.getThreadAllocatedBytes(tid);
+            canvas.dispatchEvent(events[i]);
+            long t2 = mx.getThreadAllocatedBytes(tid);
+            paintBytes += t1 - t0;
+            hitBytes += t2 - t1;
+        }
+
+        System.out.println();
+        System.out.printf("repainted frames:  %d%n", FRAMES);
+        System.out.printf("hit image redraws: %d%n", pad.getHitImageRebuilds() - redrawsBefore);
+        System.out.printf("paint bytes/frame: %d%n", paintBytes / FRAMES);
+        System.out.printf("hit bytes/frame:   %d%n", hitBytes / FRAMES);
+        System.out.printf("hit bytes/shape:   %.1f%n", (double)hitBytes / FRAMES / SHAPES);
+
+        pad.dispose();
+    }
+
+    /**
+     * Move a Shape, repaint, and dispatch a mouse move that redraws the hit image
+     */
+    private static void frame(Pad pad, Component canvas, BufferedImage img, Shape s, MouseEvent e) {
+        s.move(1, 0);
+        Graphics2D g = img.createGraphics();
+        pad.getContentPane().paint(g);
+        g.dispose();
+        canvas.dispatchEvent(e);
+    }
+}
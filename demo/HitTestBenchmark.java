@@ -0,0 +1,108 @@
+/*
+ * HitTestBenchmark.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import doodlepad.*;
+
+/**
+ * Compare the frame time and mouse dispatch time of the two Pad hit test modes
+ * with increasing numbers of Shapes.
+ */
+public class HitTestBenchmark {
+
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {1000, 10000, 100000};
+
+        System.out.printf("%8s %10s %14s %14s%n", "shapes", "mode", "frame (ms)", "pick (us)");
+        for (int n : sizes) {
+            Util.invokeAndWait(() -> run(n));
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Build a scene with n Shapes and time both modes
+     */
+    private static void run(int n) {
+        Pad pad = new Pad("HitTestBenchmark", WIDTH, HEIGHT, false);
+        Layer layer = pad.getLayer(0);
+        Random rnd = new Random(42);
+        for (int i=0; i<n; i++) {
+            Shape s = (i % 2 == 0)
+                ? new Rectangle(rnd.nextDouble()*WIDTH, rnd.nextDouble()*HEIGHT, 5 + rnd.nextDouble()*20, 5 + rnd.nextDouble()*20, layer)
+                : new Oval(rnd.nextDouble()*WIDTH, rnd.nextDouble()*HEIGHT, 5 + rnd.nextDouble()*20, 5 + rnd.nextDouble()*20, layer);
+            s.setFillColor(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+        }
+
+        for (Pad.HitTestMode mode : Pad.HitTestMode.values()) {
+            pad.setHitTestMode(mode);
+            double frame = timeFrames(pad, Math.max(3, 100000 / n));
+            double pick = timePicks(pad, 2000);
+            System.out.printf("%8d %10s %14.3f %14.3f%n", n, mode, frame, pick);
+        }
+        pad.dispose();
+    }
+
+    /**
+     * Paint the whole Pad into an off-screen image and return the average milliseconds per frame
+     */
+    private static double timeFrames(Pad pad, int frames) {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Component canvas = pad.getContentPane();
+
+        // Warm up
+        for (int i=0; i<frames; i++) paint(canvas, img);
+
+        long start = System.nanoTime();
+        for (int i=0; i<frames; i++) paint(canvas, img);
+        return (System.nanoTime() - start) / 1.0e6 / frames;
+    }
+
+    private static void paint(Component canvas, BufferedImage img) {
+        Graphics2D g = img.createGraphics();
+        canvas.paint(g);
+        g.dispose();
+    }
+
+    /**
+     * Dispatch mouse moved events at random locations and return the average microseconds per event
+     */
+    private static double timePicks(Pad pad, int events) {
+        Component canvas = pad.getContentPane().getComponent(0);
+        Random rnd = new Random(7);
+
+        long start = System.nanoTime();
+        for (int i=0; i<events; i++) {
+            int x = rnd.nextInt(WIDTH);
+            int y = rnd.nextInt(HEIGHT);
+            canvas.dispatchEvent(new MouseEvent(canvas, MouseEvent.MOUSE_MOVED, System.currentTimeMillis(), 0, x, y, 0, false));
+        }
+        return (System.nanoTime() - start) / 1.0e3 / events;
+    }
+}
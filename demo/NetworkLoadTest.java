@@ -0,0 +1,202 @@
+/*
+ * NetworkLoadTest.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import doodlepad.*;
+
+/**
+ * Load test of Pad networking. A Pad echoes every message it receives, while a driver in the same
+ * process opens many concurrent loopback connections to it. For each server mode the test reports
+ * the time to have each connection accepted, the round-trip time of messages, the time to echo 
+ * a burst of one message from every connection, and the heap and threads used while they are open.
+ *
+ * Modes are: platform (a platform thread per connection), virtual (a virtual thread per connection,
+ * Java 21 or later) and nio (non-blocking event loops). Raise the open file limit for large counts.
+ *
+ * Usage: java NetworkLoadTest [connections] [mode,mode,...] [port]
+ */
+public class NetworkLoadTest {
+
+    /**
+     * A Pad that echoes every message back to the connection it came from
+     */
+    static class EchoPad extends Pad {
+        final Semaphore opened = new Semaphore(0);
+
+        EchoPad() {
+            super("NetworkLoadTest", 300, 100, false);
+        }
+
+        @Override
+        public void onClientOpened(int id) {
+            opened.release();
+        }
+
+        @Override
+        public void onClientReceived(int id, String msg) {
+            send(id, msg);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 10_000;
+        String[] modes = (args.length > 1) ? args[1].split(",") : new String[] {"platform", "virtual", "nio"};
+        int port = (args.length > 2) ? Integer.parseInt(args[2]) : 4322;
+
+        EchoPad pad = new EchoPad();
+        for (String mode : modes) {
+            run(pad, mode.trim(), n, port);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Run the load test in one server mode
+     */
+    private static void run(EchoPad pad, String mode, int n, int port) throws Exception {
+        switch (mode) {
+            case "platform":
+                pad.setVirtualThreads(false);
+                pad.setNonBlockingServer(false);
+                break;
+            case "virtual":
+                pad.setNonBlockingServer(false);
+                if (!pad.setVirtualThreads(true)) {
+                    System.out.println("virtual: not available on Java " + System.getProperty("java.version") + ", skipped");
+                    return;
+                }
+                break;
+            case "nio":
+                pad.setVirtualThreads(false);
+                pad.setNonBlockingServer(true);
+                break;
+            default:
+                System.out.println(mode + ": unknown mode, skipped");
+                return;
+        }
+
+        long heapBefore = usedHeap();
+        pad.startListening(port);
+
+        // Open connections one at a time, timing each from connect until the Pad reports it opened
+        List<Socket> sockets = new ArrayList<>(n);
+        long[] accept = new long[n];
+        try {
+            for (int i=0; i<n; i++) {
+                long t0 = System.nanoTime();
+                sockets.add(connect(port));
+                pad.opened.acquire();
+                accept[i] = System.nanoTime() - t0;
+            }
+
+            long heap = usedHeap() - heapBefore;
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+            // Round trips on a sample of connections, one at a time
+            int samples = Math.min(n, 2000);
+            long[] rtt = new long[samples];
+            byte[] ping = "ping\n".getBytes(StandardCharsets.UTF_8);
+            for (int i=0; i<samples; i++) {
+                Socket s = sockets.get((int)((long)i*n/samples));
+                long t0 = System.nanoTime();
+                s.getOutputStream().write(ping);
+                readLine(s.getInputStream());
+                rtt[i] = System.nanoTime() - t0;
+            }
+
+            // A burst of one message from every connection
+            long t0 = System.nanoTime();
+            for (Socket s : sockets) s.getOutputStream().write(ping);
+            for (Socket s : sockets) readLine(s.getInputStream());
+            long burst = System.nanoTime() - t0;
+
+            System.out.printf("%-8s connections=%d accept p50=%.3f p99=%.3f max=%.3f ms  rtt p50=%.3f p99=%.3f ms  " +
+                              "burst=%.1f ms  heap=%.1f MB (%.1f KB/connection)  threads=%d%n",
+                    mode, n, percentile(accept, 50), percentile(accept, 99), percentile(accept, 100),
+                    percentile(rtt, 50), percentile(rtt, 99), burst/1.0e6,
+                    heap/1048576.0, heap/1024.0/n, threads);
+
+        } finally {
+            pad.stopListening();
+            for (Socket s : sockets) s.close();
+            while (pad.getNumConnections() > 0) Thread.sleep(10);
+            pad.opened.drainPermits();
+        }
+    }
+
+    /**
+     * Connect to the Pad, retrying while its server starts
+     */
+    private static Socket connect(int port) throws IOException, InterruptedException {
+        for (int tries = 0; ; tries++) {
+            try {
+                Socket s = new Socket("127.0.0.1", port);
+                s.setTcpNoDelay(true);
+                return s;
+            } catch (ConnectException ex) {
+                if (tries == 100) throw ex;
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    /**
+     * Read and discard one line. No buffered reader is kept per socket, so the driver adds little to the heap.
+     */
+    private static void readLine(InputStream in) throws IOException {
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) throw new IOException("Connection closed");
+        }
+    }
+
+    /**
+     * Return the heap in use after a garbage collection
+     */
+    private static long usedHeap() throws InterruptedException {
+        for (int i=0; i<3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Return a percentile of durations in nanoseconds, in milliseconds
+     */
+    private static double percentile(long[] ns, int p) {
+        long[] sorted = ns.clone();
+        Arrays.sort(sorted);
+        int i = Math.min(sorted.length - 1, (int)Math.ceil(p/100.0*sorted.length) - 1);
+        return sorted[Math.max(0, i)] / 1.0e6;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * OffscreenDemo.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import doodlepad.*;
+
+/**
+ * Render a series of thumbnails without opening a window.
+ * Run with -Djava.awt.headless=true to confirm that no display is needed.
+ */
+public class OffscreenDemo {
+
+    public static void main(String[] args) {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+        String dir = System.getProperty("java.io.tmpdir");
+
+        OffscreenPad pad = new OffscreenPad(128, 128);
+        Layer layer = pad.getLayer();
+        BufferedImage img = new BufferedImage(128, 128, BufferedImage.TYPE_INT_ARGB);
+        Random rnd = new Random(1);
+
+        long start = System.nanoTime();
+        for (int i=0; i<count; i++) {
+            // Build a new scene for each thumbnail
+            pad.clear();
+            for (int j=0; j<10; j++) {
+                Shape s = (j % 2 == 0)
+                    ? new Oval(rnd.nextInt(100), rnd.nextInt(100), 10 + rnd.nextInt(40), 10 + rnd.nextInt(40), layer)
+                    : new Rectangle(rnd.nextInt(100), rnd.nextInt(100), 10 + rnd.nextInt(40), 10 + rnd.nextInt(40), layer);
+                s.setFillColor(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+            }
+            new Text("#" + i, 4, 4, 14, java.awt.Font.BOLD, "SansSerif", layer);
+
+            // Reuse the same image for every render
+            pad.render(img);
+        }
+        double secs = (System.nanoTime() - start) / 1.0e9;
+        System.out.printf("Rendered %d thumbnails in %.2f s (%.0f per minute)%n", count, secs, 60.0*count/secs);
+
+        // Save the last one as an example
+        String path = dir + java.io.File.separator + "doodlepad-thumbnail.png";
+        if (pad.save(path)) System.out.println("Saved " + path);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * ParticleDemo.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import doodlepad.*;
+
+/**
+ * Animate a large number of particles on a ParticleLayer.
+ * Particles drift with a constant velocity and wrap around the edges of the Pad.
+ * With a display, the particles are shown on a Pad above a Layer of ordinary Shapes.
+ * Without one, frames are rendered with an OffscreenPad and the average frame rate is reported.
+ *
+ * Usage: java ParticleDemo [particles]
+ */
+public class ParticleDemo {
+
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+
+    public static void main(String[] args) {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+
+        if (GraphicsEnvironment.isHeadless()) {
+            OffscreenPad pad = new OffscreenPad(WIDTH, HEIGHT);
+            ParticleLayer particles = new ParticleLayer(null, n);
+            pad.addLayer(particles);
+            double[][] velocity = populate(particles, n);
+
+            BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+            for (int i=0; i<30; i++) step(particles, velocity, img, pad);
+
+            int frames = 100;
+            long start = System.nanoTime();
+            for (int i=0; i<frames; i++) step(particles, velocity, img, pad);
+            double ms = (System.nanoTime() - start) / 1.0e6 / frames;
+            System.out.printf("%d particles: %.2f ms per frame (%.1f fps)%n", n, ms, 1000.0/ms);
+
+        } else {
+            Pad pad = new Pad("ParticleDemo", WIDTH, HEIGHT);
+            new Text("Particles: " + n, 10, 10, 24);
+            ParticleLayer particles = new ParticleLayer(pad, n);
+            pad.addLayer(particles);
+            double[][] velocity = populate(particles, n);
+
+            pad.setTickRate(30);
+            pad.setTickHandler((p, when) -> move(particles, velocity));
+            pad.startTimer();
+        }
+    }
+
+    /**
+     * Add n particles at random locations with random colors, and return their velocities
+     */
+    private static double[][] populate(ParticleLayer particles, int n) {
+        Random rnd = new Random(42);
+        double[][] velocity = new double[2][n];
+        particles.setParticleCount(n);
+        particles.update((x, y, size, rotation, color, count) -> {
+            for (int i=0; i<count; i++) {
+                x[i] = rnd.nextDouble()*WIDTH;
+                y[i] = rnd.nextDouble()*HEIGHT;
+                size[i] = 1.0;
+                color[i] = 0xC0000000 | rnd.nextInt(0x1000000);
+                velocity[0][i] = rnd.nextDouble()*2.0 - 1.0;
+                velocity[1][i] = rnd.nextDouble()*2.0 - 1.0;
+            }
+        });
+        return velocity;
+    }
+
+    /**
+     * Advance all particles by one step
+     */
+    private static void move(ParticleLayer particles, double[][] velocity) {
+        double[] vx = velocity[0];
+        double[] vy = velocity[1];
+        particles.update((x, y, size, rotation, color, count) -> {
+            for (int i=0; i<count; i++) {
+                double nx = x[i] + vx[i];
+                double ny = y[i] + vy[i];
+                x[i] = (nx < 0.0) ? nx + WIDTH : (nx >= WIDTH) ? nx - WIDTH : nx;
+                y[i] = (ny < 0.0) ? ny + HEIGHT : (ny >= HEIGHT) ? ny - HEIGHT : ny;
+            }
+        });
+    }
+
+    /**
+     * Advance the particles and render one frame off-screen
+     */
+    private static void step(ParticleLayer particles, double[][] velocity, BufferedImage img, OffscreenPad pad) {
+        move(particles, velocity);
+        pad.render(img);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * PerformanceBenchmarks.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.Component;
+import java.awt.GraphicsEnvironment;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+import doodlepad.*;
+
+/**
+ * Baseline timings of the main DoodlePad operations at scene sizes from 100 to 100,000 Shapes.
+ * Each benchmark warms up, then repeats its operation for a fixed time and reports the average time per operation.
+ * Painting is measured with an OffscreenPad, which uses the same Layer drawing path as a Pad window,
+ * so these benchmarks run with java.awt.headless=true. Mouse dispatch through a Pad is measured only when a display is available.
+ * 
+ * Usage: java PerformanceBenchmarks [sizes...]
+ */
+public class PerformanceBenchmarks {
+
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+    private static final long WARMUP_NANOS  = 300_000_000L;
+    private static final long MEASURE_NANOS = 1_000_000_000L;
+
+    /**
+     * Results are accumulated here so the JIT cannot discard the work being measured
+     */
+    private static long sink = 0;
+
+    /**
+     * A benchmarked operation. Each call performs one operation.
+     */
+    private interface Op {
+        void run(int i);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {100, 1000, 10000, 100000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i=0; i<args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        System.out.printf("%-28s %8s %14s%n", "benchmark", "shapes", "ns/op");
+        for (int n : sizes) {
+            runScene(n);
+            if (!GraphicsEnvironment.isHeadless()) {
+                final int size = n;
+                Util.invokeAndWait(() -> runPad(size));
+            }
+        }
+        if (sink == 42) System.out.println();
+        System.exit(0);
+    }
+
+    /**
+     * Benchmarks that need no window
+     */
+    private static void runScene(int n) {
+        OffscreenPad pad = new OffscreenPad(WIDTH, HEIGHT);
+        Layer layer = pad.getLayer();
+        Shape[] shapes = populate(layer, n);
+        Random rnd = new Random(3);
+
+        // Paint path
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        report("paint (full frame)", n, time(i -> pad.render(img)));
+
+        // Spatial queries
+        int[] px = randomInts(rnd, 4096, WIDTH);
+        int[] py = randomInts(rnd, 4096, HEIGHT);
+        report("Layer.shapesAt", n, time(i -> sink += layer.shapesAt(px[i & 4095], py[i & 4095]).size()));
+
+        // Display list changes
+        int[] idx = randomInts(rnd, 4096, n);
+        report("Layer.toFront", n, time(i -> layer.toFront(shapes[idx[i & 4095]])));
+        report("Layer.removeShape+addShape", n, time(i -> {
+            Shape s = shapes[idx[i & 4095]];
+            layer.removeShape(s);
+            layer.addShape(s);
+        }));
+
+        // Geometry
+        report("Shape.intersects", n, time(i -> {
+            if (shapes[idx[i & 4095]].intersects(shapes[idx[(i + 1) & 4095]])) sink++;
+        }));
+
+        // Path and Polygon rebuilds with one point per Shape in the scene, up to 10,000 points
+        int points = Math.min(n, 10000);
+        double[] xs = new double[points];
+        double[] ys = new double[points];
+        for (int i=0; i<points; i++) {
+            double a = 2.0*Math.PI*i/points;
+            xs[i] = 300 + 200*Math.cos(a);
+            ys[i] = 300 + 200*Math.sin(a);
+        }
+        Polygon poly = new Polygon(xs, ys, layer);
+        report("Polygon.setX (" + points + " pts)", n, time(i -> poly.setX(i % points, xs[i % points] + (i & 1))));
+
+        Path path = new Path(layer);
+        path.moveTo(xs[0], ys[0]);
+        for (int i=1; i<points; i++) path.lineTo(xs[i], ys[i]);
+        path.closePath();
+        report("Path.setLocation (" + points + " pts)", n, time(i -> path.setLocation(100 + (i & 7), 100)));
+    }
+
+    /**
+     * Benchmarks of mouse dispatch on a Pad window, in both hit test modes
+     */
+    private static void runPad(int n) {
+        Pad pad = new Pad("PerformanceBenchmarks", WIDTH, HEIGHT, false);
+        populate(pad.getLayer(0), n);
+        Component canvas = pad.getContentPane().getComponent(0);
+        Random rnd = new Random(7);
+        MouseEvent[] events = new MouseEvent[4096];
+        for (int i=0; i<events.length; i++) {
+            events[i] = new MouseEvent(canvas, MouseEvent.MOUSE_MOVED, 0L, 0, rnd.nextInt(WIDTH), rnd.nextInt(HEIGHT), 0, false);
+        }
+
+        for (Pad.HitTestMode mode : Pad.HitTestMode.values()) {
+            pad.setHitTestMode(mode);
+            BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+            pad.getContentPane().paint(img.createGraphics());
+            report("mouse move " + mode, n, time(i -> canvas.dispatchEvent(events[i & 4095])));
+        }
+        pad.dispose();
+    }
+
+    /**
+     * Fill a Layer with a mix of randomly placed Shapes
+     */
+    private static Shape[] populate(Layer layer, int n) {
+        Random rnd = new Random(42);
+        Shape[] shapes = new Shape[n];
+        for (int i=0; i<n; i++) {
+            double x = rnd.nextDouble()*WIDTH;
+            double y = rnd.nextDouble()*HEIGHT;
+            double w = 5 + rnd.nextDouble()*20;
+            double h = 5 + rnd.nextDouble()*20;
+            switch (i % 3) {
+                case 0:  shapes[i] = new Rectangle(x, y, w, h, layer); break;
+                case 1:  shapes[i] = new Oval(x, y, w, h, layer); break;
+                default: shapes[i] = new Line(x, y, x + w, y + h, layer); break;
+            }
+            shapes[i].setFillColor(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+        }
+        return shapes;
+    }
+
+    private static int[] randomInts(Random rnd, int count, int bound) {
+        int[] a = new int[count];
+        for (int i=0; i<count; i++) a[i] = rnd.nextInt(bound);
+        return a;
+    }
+
+    /**
+     * Warm up an operation, then return its average time in nanoseconds
+     */
+    private static double time(Op op) {
+        int i = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < WARMUP_NANOS) op.run(i++);
+
+        long ops = 0;
+        start = System.nanoTime();
+        long elapsed;
+        do {
+            op.run(i++);
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+        return (double)elapsed / ops;
+    }
+
+    private static void report(String name, int n, double nanos) {
+        System.out.printf("%-28s %8d %14.1f%n", name, n, nanos);
+    }
+}
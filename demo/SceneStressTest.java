@@ -0,0 +1,173 @@
+/*
+ * SceneStressTest.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import doodlepad.*;
+
+/**
+ * Stress test of concurrent scene changes. Many writer threads add, remove, reorder,
+ * move and restyle Shapes on two Layers while the scene is repainted continuously.
+ * With a display, a Pad repaints on every timer tick. Without one, an OffscreenPad
+ * is rendered in a loop on its own thread. Any exception on any thread fails the test,
+ * and at the end the Shapes left on each Layer must match the Shapes the writers kept.
+ * Only display-list membership is checked. A Shape restyled during a frame may be drawn
+ * with part of its new style, which Layer allows.
+ *
+ * Usage: java SceneStressTest [writers] [seconds]
+ */
+public class SceneStressTest {
+
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+    private static final int MAX_SHAPES_PER_WRITER = 500;
+
+    private static final AtomicInteger failures = new AtomicInteger();
+    private static final AtomicLong operations = new AtomicLong();
+    private static final AtomicLong frames = new AtomicLong();
+    private static volatile boolean running = true;
+
+    public static void main(String[] args) throws Exception {
+        int writers = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+
+        // Count exceptions from every thread, including the event dispatch thread
+        Thread.setDefaultUncaughtExceptionHandler((t, ex) -> {
+            failures.incrementAndGet();
+            System.err.println(t.getName() + ": " + ex);
+        });
+
+        Layer[] layers = new Layer[2];
+        Thread renderer = null;
+        Pad pad = null;
+        if (GraphicsEnvironment.isHeadless()) {
+            OffscreenPad off = new OffscreenPad(WIDTH, HEIGHT);
+            layers[0] = off.getLayer(0);
+            layers[1] = off.getLayer(off.addLayer());
+            renderer = new Thread(() -> render(off), "renderer");
+            renderer.start();
+        } else {
+            pad = new Pad("SceneStressTest", WIDTH, HEIGHT);
+            layers[0] = pad.getLayer(0);
+            layers[1] = pad.getLayer(pad.addLayer());
+            pad.setTickRate(120);
+            pad.setTickHandler((p, when) -> {
+                p.redraw();
+                frames.incrementAndGet();
+            });
+            pad.startTimer();
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        List<List<Shape>> kept = new ArrayList<>();
+        for (int w=0; w<writers; w++) {
+            List<Shape> mine = new ArrayList<>();
+            kept.add(mine);
+            final long seed = w;
+            Thread t = new Thread(() -> write(layers, mine, new Random(seed)), "writer-" + w);
+            threads.add(t);
+            t.start();
+        }
+
+        Thread.sleep(seconds * 1000L);
+        running = false;
+        for (Thread t : threads) t.join();
+        if (renderer != null) renderer.join();
+        if (pad != null) pad.stopTimer();
+
+        // Every Shape a writer kept must be on exactly one Layer, and nothing else may be
+        int expected = 0;
+        for (List<Shape> mine : kept) expected += mine.size();
+        int actual = 0;
+        for (Layer layer : layers) {
+            for (Shape s : layer) {
+                actual++;
+                if (s.getLayer() != layer) failures.incrementAndGet();
+            }
+        }
+        if (actual != expected) failures.incrementAndGet();
+
+        System.out.printf("writers=%d seconds=%d operations=%d frames=%d shapes=%d/%d failures=%d%n",
+                writers, seconds, operations.get(), frames.get(), actual, expected, failures.get());
+        System.exit(failures.get() == 0 ? 0 : 1);
+    }
+
+    /**
+     * Randomly change the scene until stopped. Each writer only touches the Shapes it created.
+     */
+    private static void write(Layer[] layers, List<Shape> mine, Random rnd) {
+        while (running) {
+            int op = rnd.nextInt(8);
+            if (mine.isEmpty() || (op == 0 && mine.size() < MAX_SHAPES_PER_WRITER)) {
+                Layer layer = layers[rnd.nextInt(layers.length)];
+                Shape s = (rnd.nextBoolean())
+                    ? new Oval(rnd.nextDouble()*WIDTH, rnd.nextDouble()*HEIGHT, 5 + rnd.nextDouble()*20, 5 + rnd.nextDouble()*20, layer)
+                    : new Rectangle(rnd.nextDouble()*WIDTH, rnd.nextDouble()*HEIGHT, 5 + rnd.nextDouble()*20, 5 + rnd.nextDouble()*20, layer);
+                s.setSelectable(true);
+                mine.add(s);
+            } else {
+                Shape s = mine.get(rnd.nextInt(mine.size()));
+                switch (op) {
+                    case 1:
+                        s.getLayer().removeShape(s);
+                        mine.remove(s);
+                        break;
+                    case 2:
+                        s.toFront();
+                        break;
+                    case 3:
+                        s.toBack();
+                        break;
+                    case 4:
+                        layers[rnd.nextInt(layers.length)].addShape(s);
+                        break;
+                    case 5:
+                        s.setSelected(!s.getSelected());
+                        break;
+                    case 6:
+                        s.setFillColor(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+                        break;
+                    default:
+                        s.move(rnd.nextDouble()*4 - 2, rnd.nextDouble()*4 - 2);
+                        break;
+                }
+            }
+            operations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Render an OffscreenPad continuously until stopped
+     */
+    private static void render(OffscreenPad pad) {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        while (running) {
+            pad.render(img);
+            frames.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * DetachedShapeTest.java
+ * 
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2018 Mark F. Russo
+ * 
+ * This file is part of DoodlePad
+ * 
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.List;
+import doodlepad.*;
+
+/**
+ * Check that Layer.shapesIn() finds Shapes with negative width or height,
+ * such as Lines drawn right-to-left or bottom-to-top, and Shapes whose
+ * bounds change after the Layer's spatial index has been built.
+ * Runs headless and exits with a non-zero status on failure.
+ */
+public class ShapesInTest {
+
+    static int failures = 0;
+
+    static void check(String label, boolean ok) {
+        System.out.println((ok ? "PASS " : "FAIL ") + label);
+        if (!ok) failures++;
+    }
+
+    public static void main(String[] args) {
+        OffscreenPad pad = new OffscreenPad(1000, 600);
+        Layer layer = pad.getLayer();
+
+        Line reversed = new Line(780, 150, 720, 120, layer);
+        Line upward   = new Line(100, 300, 160, 250, layer);
+        Line vertical = new Line(400, 100, 400, 200, layer);
+        Rectangle far = new Rectangle(900, 500, 20, 20, layer);
+
+        List<Shape> found = layer.shapesIn(740, 125, 20, 20);
+        check("reversed Line found", found.contains(reversed));
+        check("distant Rectangle excluded", !found.contains(far));
+
+        found = layer.shapesIn(120, 270, 10, 10);
+        check("bottom-to-top Line found", found.contains(upward));
+
+        found = layer.shapesIn(398, 140, 4, 4);
+        check("vertical Line found", found.contains(vertical));
+
+        // Rotate the reversed Line a quarter turn about its midpoint so it
+        // covers a region that its untransformed bounds do not
+        reversed.rotate(90, 750, 135);
+        found = layer.shapesIn(740, 158, 6, 6);
+        check("rotated reversed Line found", found.contains(reversed));
+
+        // Fill the Layer past the size at which the spatial index is used, then
+        // grow a Text and check that its new extent is found
+        for (int i = 0; i < 300; i++) {
+            new Rectangle(10 + (i % 30) * 6, 400 + (i / 30) * 6, 4, 4, layer);
+        }
+        Text label = new Text("x", 500, 400, 20, layer);
+        layer.shapesIn(0, 0, 1000, 600);
+        label.setText("a much longer label than before");
+        found = layer.shapesIn(label.getX() + label.getWidth() - 4, 410, 2, 2);
+        check("grown Text found in indexed Layer", found.contains(label));
+
+        if (failures > 0) System.exit(1);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * ActiveRenderer.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package doodlepad;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import javax.swing.SwingUtilities;
+
+/**
+ * The loop used by a Pad in active rendering mode.
+ * A dedicated thread paces frames at a target rate. For each frame it advances the Pad
+ * by a whole number of fixed-length tick steps, then renders once. 
+ * Ticks and rendering run on the event dispatch thread so Shapes are never touched concurrently.
+ * Frame intervals of recent frames are kept to report frame rate and pacing statistics.
+ *
+ * @author Mark F. Russo, Ph.D.
+ * @version 1.0
+ */
+final class ActiveRenderer implements Runnable
+{
+    /**
+     * Maximum number of tick steps run before a frame is rendered.
+     * When the Pad falls further behind, the remaining time is discarded.
+     */
+    private static final int MAX_STEPS_PER_FRAME = 5;
+    
+    /**
+     * Number of recent frames retained for statistics
+     */
+    private static final int HISTORY = 240;
+    
+    /**
+     * A frame that arrives this many frame periods late counts as dropped
+     */
+    private static final double DROPPED_FRAME_FACTOR = 1.5;
+    
+    private final Pad pad;
+    private final long framePeriod;
+    private volatile boolean running = false;
+    private Thread thread = null;
+    
+    /**
+     * Tick steps to run in the next frame, and fraction of a step left over
+     */
+    private int pendingSteps = 0;
+    private volatile double interpolation = 0.0;
+    
+    /**
+     * Ring buffer of recent frame intervals in nanoseconds
+     */
+    private final long[] intervals = new long[HISTORY];
+    private int intervalCount = 0;
+    private int intervalNext = 0;
+    private long droppedFrames = 0;
+    
+    /**
+     * Work done on the event dispatch thread for each frame
+     */
+    private final Runnable frameTask = new Runnable() {
+        @Override
+        public void run() {
+            // The renderer may have been stopped after this frame was queued
+            if (!running) return;
+            pad.activeFrame(pendingSteps);
+        }
+    };
+    
+    /**
+     * Create a renderer for a Pad
+     * @param pad   The Pad to render
+     * @param fps   Target frames per second
+     */
+    ActiveRenderer(Pad pad, double fps) {
+        this.pad = pad;
+        this.framePeriod = (long)(1.0e9/fps);
+    }
+    
+    /**
+     * Start the render thread
+     */
+    void start() {
+        running = true;
+        thread = new Thread(this, "DoodlePad Render");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Stop the render thread. Does not wait for the thread to finish,
+     * because it may be waiting on the event dispatch thread.
+     */
+    void stop() {
+        running = false;
+        if (thread != null) thread.interrupt();
+    }
+    
+    /**
+     * The render loop
+     */
+    @Override
+    public void run() {
+        long prev = System.nanoTime();
+        long lastFrame = 0;
+        long accumulator = 0;
+        long nextFrame = prev;
+        
+        while (running) {
+            long now = System.nanoTime();
+            accumulator += now - prev;
+            prev = now;
+            
+            // Fixed tick steps. The tick rate may change while running.
+            long step = (long)(1.0e9/pad.getTickRate());
+            int steps = (int)Math.min(accumulator/step, MAX_STEPS_PER_FRAME);
+            accumulator = (steps == MAX_STEPS_PER_FRAME) ? accumulator % step : accumulator - steps*step;
+            interpolation = (double)accumulator/step;
+            
+            pendingSteps = steps;
+            try {
+                SwingUtilities.invokeAndWait(frameTask);
+            } catch (InterruptedException ex) {
+                break;
+            } catch (InvocationTargetException ex) {
+                System.err.println(ex.getCause());
+            }
+            
+            if (lastFrame != 0) recordInterval(now - lastFrame);
+            lastFrame = now;
+            
+            // Wait for the next frame, resynchronizing if more than a frame behind
+            nextFrame += framePeriod;
+            long end = System.nanoTime();
+            if (end - nextFrame > framePeriod) nextFrame = end;
+            while (running && (nextFrame - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(nextFrame - System.nanoTime());
+            }
+        }
+    }
+    
+    /**
+     * Save the time between two frames
+     */
+    private synchronized void recordInterval(long nanos) {
+        intervals[intervalNext] = nanos;
+        intervalNext = (intervalNext + 1) % HISTORY;
+        if (intervalCount < HISTORY) intervalCount++;
+        if (nanos > DROPPED_FRAME_FACTOR*framePeriod) droppedFrames++;
+    }
+    
+    /**
+     * Return the average frames per second over recent frames
+     * @return Frames per second
+     */
+    synchronized double getFps() {
+        if (intervalCount == 0) return 0.0;
+        long total = 0;
+        for (int i=0; i<intervalCount; i++) total += intervals[i];
+        return 1.0e9*intervalCount/total;
+    }
+    
+    /**
+     * Return a percentile of recent frame intervals
+     * @param percentile The percentile in the range [0, 100]
+     * @return Frame interval in milliseconds
+     */
+    synchronized double getFrameTimePercentile(double percentile) {
+        if (intervalCount == 0) return 0.0;
+        long[] sorted = Arrays.copyOf(intervals, intervalCount);
+        Arrays.sort(sorted);
+        double p = Math.max(0.0, Math.min(100.0, percentile));
+        int idx = (int)Math.ceil(p/100.0*intervalCount) - 1;
+        return sorted[Math.max(0, idx)] / 1.0e6;
+    }
+    
+    /**
+     * Return the number of frames that arrived late enough to count as dropped
+     * @return Number of dropped frames
+     */
+    synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+    
+    /**
+     * Return the fraction of a tick step that had elapsed when the last frame was rendered
+     * @return Interpolation factor in the range [0, 1)
+     */
+    double getInterpolation() {
+        return interpolation;
+    }
+}
@@ -24,7 +24,6 @@ package doodlepad;
 
 import java.awt.Graphics2D;
 import java.awt.Color;
-import java.awt.BasicStroke;
 import java.awt.geom.Area;
 import java.awt.geom.Arc2D;
 import java.util.Random;
@@ -43,6 +42,11 @@ public class Arc extends Shape
     private double startAngle = 0;
     private double arcAngle = 0;
     
+    /**
+     * Arc last used to draw the Arc, replaced only when its geometry or fill setting changes
+     */
+    private volatile Arc2D.Double arc = null;
+    
     /**
      * Creates an arc shape defined by a section of an ellipse bounded by the rectangle with upper left
      * corner at (x, y) and size (width, height). The section starts at angle startAngle (degrees) and
@@ -169,16 +173,7 @@ public class Arc extends Shape
     @Override
     public void draw(Graphics2D g)
     {
-        // Set the type based on the filled setting
-        int typ;
-        if (filled == true) {
-            typ = java.awt.geom.Arc2D.PIE;
-        } else {
-            typ = java.awt.geom.Arc2D.OPEN;
-        }
-        
-        // Create the shape
-        Arc2D.Double arc = new Arc2D.Double(x, y, width, height, startAngle, arcAngle, typ);
+        Arc2D.Double arc = getArc2D();
         
         if (filled == true) {
             g.setColor(this.fillColor);
@@ -189,15 +184,35 @@ public class Arc extends Shape
         if (stroked == true && strokeWidth > 0.0) {
             g.setColor(this.strokeColor);
             
-            float _strokeWidth = (float)strokeWidth;
-            //if (selected) _strokeWidth = 2.0f*_strokeWidth;
-            g.setStroke( new BasicStroke(_strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
+            g.setStroke( getDrawStroke() );
             g.draw( arc );
         }
         
         if (selected) drawSelRect(g);
     }
     
+    /**
+     * Return the arc outlining the Arc, rebuilt only when its geometry or fill setting changes.
+     * The arc is a pie section if filled, and an open section if not filled.
+     * @return The shared Arc2D, which must not be modified
+     */
+    private Arc2D.Double getArc2D() {
+        int typ;
+        if (filled == true) {
+            typ = java.awt.geom.Arc2D.PIE;
+        } else {
+            typ = java.awt.geom.Arc2D.OPEN;
+        }
+        
+        Arc2D.Double a = arc;
+        if (a == null || a.x != x || a.y != y || a.width != width || a.height != height ||
+                a.start != startAngle || a.extent != arcAngle || a.getArcType() != typ) {
+            a = new Arc2D.Double(x, y, width, height, startAngle, arcAngle, typ);
+            arc = a;
+        }
+        return a;
+    }
+    
     /**
      * Return the area of an arc. The area will be of the pie section if filled, and an open section if not filled.
      * @return A java.awt.geom.Area object.
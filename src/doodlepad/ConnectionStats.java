@@ -0,0 +1,121 @@
+/*
+ * ConnectionStats.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package doodlepad;
+
+/**
+ * A snapshot of the outbound queue of one network connection: what is waiting to be sent, 
+ * what has been sent and dropped, and the recent send rate. Obtained from Pad.getConnectionStats().
+ *
+ * @author Mark F. Russo, Ph.D.
+ * @version 1.0
+ */
+public final class ConnectionStats
+{
+    private final int id;
+    private final int queuedMessages;
+    private final long queuedBytes;
+    private final int capacity;
+    private final Pad.SendPolicy policy;
+    private final long messagesSent;
+    private final long bytesSent;
+    private final long messagesDropped;
+    private final double bytesPerSecond;
+
+    ConnectionStats(int id, int queuedMessages, long queuedBytes, int capacity, Pad.SendPolicy policy,
+            long messagesSent, long bytesSent, long messagesDropped, double bytesPerSecond) {
+        this.id = id;
+        this.queuedMessages = queuedMessages;
+        this.queuedBytes = queuedBytes;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.messagesSent = messagesSent;
+        this.bytesSent = bytesSent;
+        this.messagesDropped = messagesDropped;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Return the id of the connection
+     * @return Connection id
+     */
+    public int getId() { return id; }
+
+    /**
+     * Return the number of messages waiting to be sent
+     * @return Queue depth in messages
+     */
+    public int getQueuedMessages() { return queuedMessages; }
+
+    /**
+     * Return the number of bytes waiting to be sent
+     * @return Queue depth in bytes
+     */
+    public long getQueuedBytes() { return queuedBytes; }
+
+    /**
+     * Return the number of bytes that may be queued before the send policy applies
+     * @return Queue capacity in bytes
+     */
+    public int getCapacity() { return capacity; }
+
+    /**
+     * Return what happens to a message that does not fit in the queue
+     * @return The send policy
+     */
+    public Pad.SendPolicy getSendPolicy() { return policy; }
+
+    /**
+     * Return the number of messages completely written to the socket
+     * @return Messages sent
+     */
+    public long getMessagesSent() { return messagesSent; }
+
+    /**
+     * Return the number of bytes written to the socket
+     * @return Bytes sent
+     */
+    public long getBytesSent() { return bytesSent; }
+
+    /**
+     * Return the number of messages discarded by the send policy
+     * @return Messages dropped
+     */
+    public long getMessagesDropped() { return messagesDropped; }
+
+    /**
+     * Return the rate at which bytes were written over the last second or so
+     * @return Bytes per second
+     */
+    public double getBytesPerSecond() { return bytesPerSecond; }
+
+    /**
+     * Generate a representation of the ConnectionStats
+     * @return String representation
+     */
+    @Override
+    public String toString() {
+        return "ConnectionStats id=" + id + ", queued=" + queuedMessages + " (" + queuedBytes + "/" + capacity + " bytes)"
+            + ", policy=" + policy + ", sent=" + messagesSent + " (" + bytesSent + " bytes)"
+            + ", dropped=" + messagesDropped + ", bytesPerSecond=" + Math.round(bytesPerSecond);
+    }
+}
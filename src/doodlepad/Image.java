@@ -23,7 +23,6 @@
 package doodlepad;
 
 import java.awt.Graphics2D;
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.font.FontRenderContext;
@@ -358,8 +357,7 @@ public class Image extends Shape
         if (stroked == true && strokeWidth > 0.0) {
             g.setColor(this.strokeColor);
             
-            float _strokeWidth = (float)strokeWidth;
-            g.setStroke( new BasicStroke(_strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
+            g.setStroke( getDrawStroke() );
             g.draw( arc );
         }
         
@@ -388,8 +386,7 @@ public class Image extends Shape
         if (stroked == true && strokeWidth > 0.0) {
             g.setColor(this.strokeColor);
             
-            float _strokeWidth = (float)strokeWidth;
-            g.setStroke( new BasicStroke(_strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
+            g.setStroke( getDrawStroke() );
             g.draw(ellipse);
         }
 
@@ -417,8 +414,7 @@ public class Image extends Shape
         if (stroked == true && strokeWidth > 0.0) {
             g.setColor(strokeColor);
             
-            float _strokeWidth = (float)strokeWidth;
-            g.setStroke( new BasicStroke(_strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
+            g.setStroke( getDrawStroke() );
             g.draw( rect );
         }
 
@@ -439,9 +435,7 @@ public class Image extends Shape
         if (stroked == true && strokeWidth > 0.0) {
             g.setColor(this.strokeColor);
 
-            float _strokeWidth = (float)strokeWidth;
-            //if (selected) _strokeWidth = 2.0f*_strokeWidth;
-            g.setStroke( new BasicStroke(_strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
+            g.setStroke( getDrawStroke() );
             
             g.draw( new Line2D.Double(x1, y1, x2, y2));
         }
@@ -471,9 +465,7 @@ public class Image extends Shape
         if (stroked == true && strokeWidth > 0.0) {
             g.setColor(this.strokeColor);
             
-            float _strokeWidth = (float)strokeWidth;
-            //if (selected) _strokeWidth = 2.0f*_strokeWidth;
-            g.setStroke( new BasicStroke(_strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
+            g.setStroke( getDrawStroke() );
             
             g.draw( rect );
         }
@@ -535,8 +527,7 @@ public class Image extends Shape
         if (stroked == true && strokeWidth > 0.0) {
             g.setColor( strokeColor );
             
-            float _strokeWidth = (float)strokeWidth;
-            g.setStroke( new BasicStroke(_strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
+            g.setStroke( getDrawStroke() );
             
             g.draw(_path);
         }
@@ -577,8 +568,7 @@ public class Image extends Shape
         // Stroke the text
         if (stroked == true && strokeWidth > 0.0) {
             g.setColor( strokeColor );
-            float _strokeWidth = (float)strokeWidth;
-            g.setStroke( new BasicStroke(_strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
+            g.setStroke( getDrawStroke() );
 
             //AffineTransform tx = new AffineTransform();
             //tx.translate(x, y+height);
@@ -688,6 +678,17 @@ public class Image extends Shape
         if (selected) drawSelRect(g);
     }
     
+    /**
+     * Determine if a point lands on the Image
+     * @param x x-coordinate of the point
+     * @param y y-coordinate of the point
+     * @return true if the point is inside the Image bounds
+     */
+    @Override
+    boolean hits(double x, double y) {
+        return new Rectangle2D.Double(this.x, this.y, width, height).contains(x, y);
+    }
+    
     /**
      * Draw the region that will be used to detect a hit on the shape
      * @param g The Graphics2D on which to draw the hit region
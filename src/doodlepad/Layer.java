@@ -22,13 +22,33 @@
 
 package doodlepad;
 
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.NoninvertibleTransformException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An object representing a drawing layer for the Pad class.
  * Each Layer maintains its own collection of Shapes.
+ * <p>
+ * Shapes may be added, removed, reordered and selected from any thread. Each frame is painted 
+ * from a snapshot of the display list taken as the frame starts, so which Shapes are drawn, 
+ * and in what order, is consistent within a frame. Only list membership and order are snapshotted.
+ * The Shapes themselves are shared, so a change to a Shape's position, size, style or transform 
+ * made on another thread while a frame is being painted may appear partly in that frame.
+ * Make such changes on the event dispatch thread when every frame must show them whole.
  * 
  * @author Mark F. Russo, PhD
  * @version 1.0
@@ -36,23 +56,127 @@ import java.util.Iterator;
 public class Layer implements Iterable<Shape>
 {
     /**
-     * Master list of Shape objects being managed by the Pad
+     * Display list of Shape objects being managed by the Pad, linked through each Shape 
+     * from the back-most Shape (first) to the front-most Shape (last).
+     * Linking through the Shapes makes removal and reordering constant time.
+     * The list and the selection are changed only while holding SCENE_LOCK.
      */
-    private final java.util.List<Shape> shapes = new ArrayList<>();
+    private Shape first = null;
+    private Shape last = null;
+    private int shapeCount = 0;
+    
+    /**
+     * Lock guarding the display lists and selections of all Layers. 
+     * One lock is shared so that a Shape moves between Layers atomically.
+     * Changes hold it only for a constant number of steps.
+     */
+    private static final Object SCENE_LOCK = new Object();
+    
+    /**
+     * Immutable array snapshot of the display list that is read without locking.
+     * A change marks it stale, and the next reader, usually the renderer at the start of a frame,
+     * publishes a new array. Unchanged frames share the same array.
+     */
+    private volatile Shape[] snapshot = new Shape[0];
+    private volatile boolean snapshotStale = false;
+    
+    /**
+     * Spatial index of Shape bounds in Layer coordinates, used for region queries
+     */
+    private final SpatialIndex index = new SpatialIndex();
+    
+    /**
+     * Shapes that changed since the spatial index was last brought up to date
+     */
+    private final Set<Shape> indexDirty = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    
+    /**
+     * Selected Shapes on this Layer, in the order they were selected, and a read-only view of them
+     */
+    private final Set<Shape> selection = new LinkedHashSet<>();
+    private final Set<Shape> selectionView = Collections.unmodifiableSet(selection);
+    
+    /**
+     * Spacing between the zOrder values of Shapes added to the front or back of the display list,
+     * which leaves room to insert Shapes between them without renumbering
+     */
+    private static final long Z_GAP = 1L << 20;
     
     /**
      * The current affine transform to be used when drawing all Shapes on this Pad
      */
     AffineTransform transform;
     
+    /**
+     * Incremented whenever the Layer transform changes, which invalidates values computed from it
+     */
+    long transformVersion = 0;
+    
+    /**
+     * Cached inverse of the Layer transform
+     */
+    private final AffineTransform inverse = new AffineTransform();
+    private long inverseVersion = -1;
+    private boolean invertible = true;
+    
     /**
      * The Pad that holds this Layer
      */
     private Pad pad = null;
     
+    /**
+     * When true, Shapes are drawn once into cacheImg, which is reused until a Shape changes
+     */
+    private boolean cached = false;
+    
+    /**
+     * Raster of all Shapes on this Layer, and the Layer transform it was drawn with
+     */
+    private BufferedImage cacheImg = null;
+    private AffineTransform cacheTransform = null;
+    
+    /**
+     * Region of the drawing surface held by cacheImg, and whether it holds every visible Shape
+     */
+    private java.awt.Rectangle cacheRegion = null;
+    private boolean cacheComplete = false;
+    
+    /**
+     * Incremented whenever a Shape changes. The cache is valid while the versions match.
+     */
+    private volatile long shapesVersion = 0;
+    private long cacheVersion = -1;
+    
+    /**
+     * Number of draws served from the cache, and number that redrew the cache
+     */
+    private long cacheHits = 0;
+    private long cacheMisses = 0;
+    
+    /**
+     * Layers with at least this many Shapes use the spatial index to find the Shapes to draw
+     */
+    private static final int INDEX_CULL_THRESHOLD = 256;
+    
+    /**
+     * Orders Shapes so that the back-most Shape is first
+     */
+    private static final java.util.Comparator<Shape> BACK_TO_FRONT = (a, b) -> Long.compare(a.zOrder, b.zOrder);
+    
+    /**
+     * Reusable list of Shapes found by the spatial index while drawing
+     */
+    private final List<Shape> drawCandidates = new ArrayList<>();
+    
+    /**
+     * Number of Shapes drawn and culled by the last call to draw
+     */
+    int shapesDrawn = 0;
+    int shapesCulled = 0;
+    
     /**
      * Layer constructor
-     * @param pad   The Pad that holds this Layer
+     * @param pad   The Pad that holds this Layer, or null if the Layer is not shown on a Pad
      */
     public Layer(Pad pad) {
         // Save a reference to the Pad object that contains this Layer
@@ -78,11 +202,289 @@ public class Layer implements Iterable<Shape>
     }
     
     /**
-     * Return an ArrayList of Shape objects currently managed by the Pad instance
+     * Draw all visible Shapes of this Layer that overlap a region.
+     * This is the drawing path shared by Pad and OffscreenPad.
+     * @param g2        The Graphics2D object on which to draw, in Pad coordinates
+     * @param clip      The region to redraw in Pad coordinates
+     * @param width     The width of the drawing surface
+     * @param height    The height of the drawing surface
+     */
+    void draw(Graphics2D g2, Rectangle2D clip, int width, int height)
+    {
+        shapesDrawn = 0;
+        shapesCulled = 0;
+        
+        // Paint the whole frame from one snapshot of the display list, unaffected by Shapes
+        // added, removed or reordered on other threads. Shape properties are read as they are.
+        Shape[] shapes = snapshot();
+        if (cached && width > 0 && height > 0) {
+            drawCached(g2, clip, width, height, shapes);
+        } else {
+            drawShapes(g2, clip, shapes);
+        }
+    }
+    
+    /**
+     * Determine if the Shapes of this Layer may be drawn in parallel tiles by a TileRenderer.
+     * A cached Layer draws one shared raster and so is drawn as a whole.
+     * @return true if the Layer may be split into tiles
+     */
+    boolean drawsInTiles() {
+        return !cached;
+    }
+    
+    /**
+     * Draw the Layer by copying the cached raster, redrawing the cache first if it is out of date.
+     * A change to the Layer transform that is a pure translation only offsets the copy.
+     */
+    private void drawCached(Graphics2D g2, Rectangle2D clip, int width, int height, Shape[] shapes)
+    {
+        double dx = 0.0;
+        double dy = 0.0;
+        boolean hit = cacheTransform != null && cacheVersion == shapesVersion
+                && cacheTransform.getScaleX() == transform.getScaleX()
+                && cacheTransform.getScaleY() == transform.getScaleY()
+                && cacheTransform.getShearX() == transform.getShearX()
+                && cacheTransform.getShearY() == transform.getShearY();
+        
+        // Unless the raster holds every Shape, the translated raster must cover the region being redrawn
+        if (hit) {
+            dx = transform.getTranslateX() - cacheTransform.getTranslateX();
+            dy = transform.getTranslateY() - cacheTransform.getTranslateY();
+            hit = cacheComplete || (clip.getMinX() >= cacheRegion.x + dx && clip.getMinY() >= cacheRegion.y + dy
+                && clip.getMaxX() <= cacheRegion.getMaxX() + dx && clip.getMaxY() <= cacheRegion.getMaxY() + dy);
+        }
+        
+        if (hit) {
+            cacheHits++;
+        } else {
+            cacheMisses++;
+            dx = 0.0;
+            dy = 0.0;
+            
+            // Record the version first so that changes made while drawing invalidate the new cache
+            cacheVersion = shapesVersion;
+            cacheTransform = (AffineTransform)transform.clone();
+            
+            // Cache the visible Shapes within a margin around the drawing surface,
+            // so that the Layer may be translated without redrawing the cache
+            Rectangle2D.Double content = null;
+            for (Shape s : shapes) {
+                if (!s.visible) continue;
+                Rectangle2D.Double b = s.getDeviceBounds();
+                if (content == null) content = new Rectangle2D.Double(b.x, b.y, b.width, b.height); else content.add(b);
+            }
+            Rectangle2D.Double limit = new Rectangle2D.Double(-0.5*width, -0.5*height, 2.0*width, 2.0*height);
+            cacheComplete = (content == null) || limit.contains(content);
+            cacheRegion = (content == null) ? new java.awt.Rectangle() : limit.createIntersection(content).getBounds();
+            
+            if (cacheRegion.isEmpty()) {
+                cacheImg = null;
+            } else {
+                if (cacheImg == null || cacheImg.getWidth() != cacheRegion.width || cacheImg.getHeight() != cacheRegion.height) {
+                    cacheImg = g2.getDeviceConfiguration().createCompatibleImage(cacheRegion.width, cacheRegion.height, Transparency.TRANSLUCENT);
+                }
+                
+                Graphics2D gc = cacheImg.createGraphics();
+                gc.setRenderingHints(g2.getRenderingHints());
+                gc.setComposite(AlphaComposite.Clear);
+                gc.fillRect(0, 0, cacheRegion.width, cacheRegion.height);
+                gc.setComposite(AlphaComposite.SrcOver);
+                gc.translate(-cacheRegion.x, -cacheRegion.y);
+                drawShapes(gc, cacheRegion, shapes);
+                gc.dispose();
+            }
+        }
+        
+        if (cacheImg != null) {
+            g2.drawImage(cacheImg, AffineTransform.getTranslateInstance(cacheRegion.x + dx, cacheRegion.y + dy), null);
+        }
+    }
+    
+    /**
+     * Draw each visible Shape that overlaps a region.
+     * Shapes are culled by comparing their cached Layer bounds with the region mapped into Layer coordinates.
+     * On large Layers where most Shapes are outside the region, only the Shapes found by the spatial index are visited.
+     */
+    private void drawShapes(Graphics2D g2, Rectangle2D clip, Shape[] shapes)
+    {
+        int count = shapes.length;
+        
+        // Map the region into Layer coordinates so Shapes need not be transformed to be culled
+        Rectangle2D layerClip;
+        try {
+            layerClip = transform.createInverse().createTransformedShape(clip).getBounds2D();
+        } catch (NoninvertibleTransformException ex) {
+            // A degenerate Layer transform draws nothing
+            shapesCulled = count;
+            return;
+        }
+        
+        drawCandidates.clear();
+        boolean useIndex = indexCandidates(layerClip, count, drawCandidates);
+        if (useIndex) shapesCulled += count - drawCandidates.size();
+        
+        AffineTransform saveTransform = g2.getTransform();
+        g2.transform( transform );
+        
+        if (useIndex) {
+            for (int i=0; i<drawCandidates.size(); i++) {
+                // The index may hold Shapes changed since the snapshot was taken
+                Shape s = drawCandidates.get(i);
+                if (s.layer == this) drawShape(g2, s, layerClip);
+            }
+        } else {
+            for (Shape s : shapes) {
+                drawShape(g2, s, layerClip);
+            }
+        }
+        
+        // Restore the original transform
+        g2.setTransform(saveTransform);
+        drawCandidates.clear();
+    }
+    
+    /**
+     * Fill an empty list, back to front, with the Shapes that the spatial index finds may overlap 
+     * a region given in Layer coordinates. The list may hold Shapes removed since the caller's snapshot was taken.
+     * Returns false, leaving the list empty, when the Layer is too small for the index to pay off 
+     * or the region covers most of its Shapes. The caller then visits every Shape instead.
+     * @param layerClip The region in Layer coordinates
+     * @param count The number of Shapes in the caller's snapshot
+     * @param candidates The empty list to fill with candidate Shapes
+     * @return true if the candidates were found with the index
+     */
+    boolean indexCandidates(Rectangle2D layerClip, int count, List<Shape> candidates)
+    {
+        if (count < INDEX_CULL_THRESHOLD) return false;
+        
+        synchronized (index) {
+            updateIndex();
+            index.query(layerClip, candidates);
+        }
+        if (candidates.size() >= count/2) {
+            candidates.clear();
+            return false;
+        }
+        candidates.sort(BACK_TO_FRONT);
+        return true;
+    }
+    
+    /**
+     * Draw one Shape if it is visible and overlaps the region, given in Layer coordinates.
+     * The Graphics2D object must already hold the Layer transform.
+     */
+    private void drawShape(Graphics2D g2, Shape s, Rectangle2D layerClip)
+    {
+        // If visible, add the Shape`s transform and draw the shape
+        if (s.visible) {
+            // Skip Shapes that fall entirely outside of the region being redrawn
+            Rectangle2D.Double bounds = s.getLayerBounds();
+            if (!bounds.intersects(layerClip)) {
+                shapesCulled++;
+                return;
+            }
+            s.paintedBounds = s.getDeviceBounds();
+            shapesDrawn++;
+            
+            // Save a copy of the Layer transform
+            AffineTransform g2at = g2.getTransform();
+            
+            // Apply the Shape transform
+            g2.transform( s.transform );
+            s.draw(g2);
+            
+            // Reset the Layer transform
+            g2.setTransform(g2at);
+        }
+    }
+    
+    /**
+     * Turn caching of this Layer's raster on or off. 
+     * A cached Layer draws its Shapes once into an image that is reused on every repaint
+     * until a Shape on the Layer changes, or the Layer transform is scaled, rotated or sheared.
+     * Translating a cached Layer only offsets the image. 
+     * Caching suits Layers that rarely change, such as backgrounds, maps and grids.
+     * @param cached true to cache the Layer raster
+     */
+    public void setCached(boolean cached) {
+        if (this.cached == cached) return;
+        this.cached = cached;
+        cacheImg = null;
+        cacheTransform = null;
+        cacheRegion = null;
+        shapesVersion++;
+        repaint();
+    }
+    
+    /**
+     * Return whether this Layer's raster is cached
+     * @return true if the Layer is cached
+     */
+    public boolean isCached() {
+        return cached;
+    }
+    
+    /**
+     * Return the number of times a cached Layer was drawn by reusing its raster
+     * @return Number of cache hits
+     */
+    public long getCacheHits() {
+        return cacheHits;
+    }
+    
+    /**
+     * Return the number of times a cached Layer had to redraw its raster
+     * @return Number of cache misses
+     */
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+    
+    /**
+     * Return an ArrayList of Shape objects currently managed by the Pad instance,
+     * ordered from back to front. The list is a copy, so Shapes may be added to or 
+     * removed from the Layer while iterating over it.
      * @return An ArrayList&lt;Shape&gt; of all Shapes being managed
      */
     public ArrayList<Shape> getShapes() {
-        return (ArrayList<Shape>)this.shapes;
+        return new ArrayList<>(shapeList());
+    }
+    
+    /**
+     * Return the number of Shapes on this Layer
+     * @return Number of Shapes
+     */
+    public int getShapeCount() {
+        synchronized (SCENE_LOCK) {
+            return shapeCount;
+        }
+    }
+    
+    /**
+     * Return the current snapshot of the display list, publishing a new one if the list has changed.
+     * The array is shared and must not be modified.
+     */
+    Shape[] snapshot() {
+        if (snapshotStale) {
+            synchronized (SCENE_LOCK) {
+                if (snapshotStale) {
+                    Shape[] arr = new Shape[shapeCount];
+                    int i = 0;
+                    for (Shape s = first; s != null; s = s.displayNext) arr[i++] = s;
+                    snapshot = arr;
+                    snapshotStale = false;
+                }
+            }
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Return the current snapshot of the display list as a read-only List
+     */
+    List<Shape> shapeList() {
+        return Collections.unmodifiableList(Arrays.asList(snapshot()));
     }
     
     /**
@@ -90,33 +492,179 @@ public class Layer implements Iterable<Shape>
      * @return An ArrayList&lt;Shape&gt; of all selected Shapes being managed
      */
     public ArrayList<Shape> getSelectedShapes() {
-        ArrayList<Shape> sel = new ArrayList<>();
-        for (Shape s : shapes) {
-            if (s.getSelected() == true) {
-                sel.add(s);
-            }
+        synchronized (SCENE_LOCK) {
+            return new ArrayList<>(selection);
+        }
+    }
+    
+    /**
+     * Return a live, read-only view of the selected Shapes on this Layer, in the order they were selected.
+     * The view changes as Shapes are selected and deselected. When other threads may change the selection,
+     * use getSelectedShapes() instead to iterate over a copy.
+     * @return Set&lt;Shape&gt; of selected Shapes
+     */
+    public Set<Shape> getSelection() {
+        return selectionView;
+    }
+    
+    /**
+     * Record a change to the selected state of a Shape on this Layer
+     * @param s     The Shape that was selected or deselected
+     * @param sel   The new selected state
+     */
+    void selectionChanged(Shape s, boolean sel) {
+        synchronized (SCENE_LOCK) {
+            if (s.layer != this) return;
+            if (sel) selection.add(s); else selection.remove(s);
         }
-        return sel;
     }
     
     /**
-     * Return an iterator for loop over Shapes
+     * Return an iterator for loop over Shapes, from back to front.
+     * Iteration runs over a snapshot of the display list, and remove() removes the Shape from the Layer.
      * @return Iterator&lt;Shape&gt; for Shapes
      */
     @Override
     public Iterator<Shape> iterator() {
-        return shapes.iterator();
+        final Shape[] arr = snapshot();
+        return new Iterator<Shape>() {
+            private int next = 0;
+            private Shape current = null;
+            
+            @Override
+            public boolean hasNext() {
+                return next < arr.length;
+            }
+            
+            @Override
+            public Shape next() {
+                if (next >= arr.length) throw new java.util.NoSuchElementException();
+                current = arr[next++];
+                return current;
+            }
+            
+            @Override
+            public void remove() {
+                if (current == null) throw new IllegalStateException();
+                if (current.layer == Layer.this) removeShape(current);
+                current = null;
+            }
+        };
     }
     
     /**
-     * Add a shape to the shapes list
+     * Add a shape to the front of the display list
      * @param s The Shape object to add to the Pad
      */
     public void addShape(Shape s)
     {
-        shapes.add(s);
+        synchronized (SCENE_LOCK) {
+            place(s, last);
+        }
+        repaint(s);
+    }
+    
+    /**
+     * Add a Shape to this Layer, or move it within this Layer, so that it is drawn just above another Shape.
+     * @param s     The Shape to insert
+     * @param ref   A Shape on this Layer that s is to be drawn in front of
+     */
+    public void insertAbove(Shape s, Shape ref)
+    {
+        synchronized (SCENE_LOCK) {
+            if (ref == null || ref.layer != this) throw new IllegalArgumentException("Reference Shape is not on this Layer");
+            if (s == ref) return;
+            place(s, ref);
+        }
+        repaint(s);
+    }
+    
+    /**
+     * Add a Shape to this Layer, or move it within this Layer, so that it is drawn just below another Shape.
+     * @param s     The Shape to insert
+     * @param ref   A Shape on this Layer that s is to be drawn behind
+     */
+    public void insertBelow(Shape s, Shape ref)
+    {
+        synchronized (SCENE_LOCK) {
+            if (ref == null || ref.layer != this) throw new IllegalArgumentException("Reference Shape is not on this Layer");
+            if (s == ref) return;
+            place(s, ref.displayPrev);
+        }
+        repaint(s);
+    }
+    
+    /**
+     * Add a Shape to this Layer, or move it within this Layer, just after another Shape in the display list.
+     * Called while holding SCENE_LOCK.
+     */
+    private void place(Shape s, Shape prev)
+    {
+        if (s.layer != null && s.layer != this) s.layer.removeShape(s);
+        if (s.layer == this) {
+            if (s == prev) return;
+            unlink(s);
+        }
         s.layer = this;
-        repaint();
+        if (s.selected) selection.add(s);
+        linkAfter(s, prev);
+    }
+    
+    /**
+     * Link a Shape into the display list just after another Shape, or at the back if prev is null,
+     * and give it a zOrder between those of its new neighbors.
+     */
+    private void linkAfter(Shape s, Shape prev)
+    {
+        Shape next = (prev == null) ? first : prev.displayNext;
+        s.displayPrev = prev;
+        s.displayNext = next;
+        if (prev == null) first = s; else prev.displayNext = s;
+        if (next == null) last = s; else next.displayPrev = s;
+        shapeCount++;
+        snapshotStale = true;
+        shapesVersion++;
+        
+        if (prev == null && next == null) {
+            s.zOrder = 0;
+        } else if (next == null) {
+            s.zOrder = prev.zOrder + Z_GAP;
+        } else if (prev == null) {
+            s.zOrder = next.zOrder - Z_GAP;
+        } else if (next.zOrder - prev.zOrder > 1) {
+            s.zOrder = prev.zOrder + (next.zOrder - prev.zOrder)/2;
+        } else {
+            // No room is left between the neighbors, so spread out all zOrder values again
+            renumber();
+        }
+    }
+    
+    /**
+     * Unlink a Shape from the display list
+     */
+    private void unlink(Shape s)
+    {
+        Shape prev = s.displayPrev;
+        Shape next = s.displayNext;
+        if (prev == null) first = next; else prev.displayNext = next;
+        if (next == null) last = prev; else next.displayPrev = prev;
+        s.displayPrev = null;
+        s.displayNext = null;
+        shapeCount--;
+        snapshotStale = true;
+        shapesVersion++;
+    }
+    
+    /**
+     * Assign evenly spaced zOrder values to all Shapes in display order
+     */
+    private void renumber()
+    {
+        long z = 0;
+        for (Shape s = first; s != null; s = s.displayNext) {
+            s.zOrder = z;
+            z += Z_GAP;
+        }
     }
     
     /**
@@ -125,16 +673,54 @@ public class Layer implements Iterable<Shape>
      */
     public void removeShape(Shape s)
     {
-        s.layer = null;
-        shapes.remove(s);
-        repaint();
+        synchronized (SCENE_LOCK) {
+            if (s.layer != this) return;
+            s.layer = null;
+            unlink(s);
+            selection.remove(s);
+            synchronized (index) {
+                indexDirty.remove(s);
+                index.remove(s);
+            }
+        }
+        shapesVersion++;
+        if (pad != null) {
+            pad.releaseHitKey(s);
+            if (cached) pad.repaint(); else pad.repaint(s);
+        }
     }
     
     /**
      * Remove all shapes from the DoodlePad
      */
     public void clear() {
-        shapes.clear();
+        Shape[] removed;
+        synchronized (SCENE_LOCK) {
+            removed = new Shape[shapeCount];
+            int i = 0;
+            Shape s = first;
+            while (s != null) {
+                Shape next = s.displayNext;
+                s.layer = null;
+                s.displayPrev = null;
+                s.displayNext = null;
+                removed[i++] = s;
+                s = next;
+            }
+            first = null;
+            last = null;
+            shapeCount = 0;
+            selection.clear();
+            snapshotStale = true;
+            shapesVersion++;
+            synchronized (index) {
+                indexDirty.clear();
+                index.clear(Arrays.asList(removed));
+            }
+        }
+        if (pad != null) {
+            for (Shape s : removed) pad.releaseHitKey(s);
+        }
         repaint();
     }
     
@@ -142,8 +728,13 @@ public class Layer implements Iterable<Shape>
      * Deselect all Shapes
      */
     void deselectAll() {
-        for (int i=0; i<shapes.size(); i++) {
-            shapes.get(i).setSelected(false);
+        Shape[] sel;
+        synchronized (SCENE_LOCK) {
+            if (selection.isEmpty()) return;
+            sel = selection.toArray(new Shape[selection.size()]);
+        }
+        for (Shape s : sel) {
+            s.setSelected(false);
         }
     }
     
@@ -152,8 +743,11 @@ public class Layer implements Iterable<Shape>
      * @param s The Shape to bring to the front of the display list.
      */
     public void toFront(Shape s) {
-        shapes.remove(s);
-        shapes.add(s);
+        synchronized (SCENE_LOCK) {
+            if (s.layer != this || s == last) return;
+            unlink(s);
+            linkAfter(s, last);
+        }
     }
     
     /**
@@ -162,8 +756,112 @@ public class Layer implements Iterable<Shape>
      */
     public void toBack(Shape s)
     {
-        shapes.remove(s);
-        shapes.add(0, s);
+        synchronized (SCENE_LOCK) {
+            if (s.layer != this || s == first) return;
+            unlink(s);
+            linkAfter(s, null);
+        }
+    }
+    
+    /**
+     * Return all Shapes on this Layer that contain the given point, ordered from front to back.
+     * @param x x-coordinate of the point in Layer coordinates
+     * @param y y-coordinate of the point in Layer coordinates
+     * @return A List&lt;Shape&gt; of Shapes containing the point, front-most first
+     */
+    public List<Shape> shapesAt(double x, double y) {
+        List<Shape> found = new ArrayList<>();
+        synchronized (index) {
+            updateIndex();
+            index.query(new Rectangle2D.Double(x, y, 0.0, 0.0), found);
+        }
+        
+        // Keep only Shapes whose geometry contains the point in their own coordinate system
+        Point2D.Double pt = new Point2D.Double();
+        Iterator<Shape> it = found.iterator();
+        while (it.hasNext()) {
+            Shape s = it.next();
+            if (!s.fromLayerCoords(x, y, pt) || !s.contains(pt.x, pt.y)) it.remove();
+        }
+        
+        sortFrontToBack(found);
+        return found;
+    }
+    
+    /**
+     * Return all Shapes on this Layer with bounds that intersect the given region, ordered from front to back.
+     * @param x         x-coordinate of the region upper left corner in Layer coordinates
+     * @param y         y-coordinate of the region upper left corner in Layer coordinates
+     * @param width     Width of the region
+     * @param height    Height of the region
+     * @return A List&lt;Shape&gt; of Shapes intersecting the region, front-most first
+     */
+    public List<Shape> shapesIn(double x, double y, double width, double height) {
+        Rectangle2D.Double rect = new Rectangle2D.Double(x, y, width, height);
+        List<Shape> found = new ArrayList<>();
+        synchronized (index) {
+            updateIndex();
+            index.query(rect, found);
+        }
+        
+        // Keep only Shapes whose transformed draw bounds intersect the region.
+        // Draw bounds are normalized and include the stroke, so reversed Lines
+        // and zero-size Shapes are matched the same way the index matched them.
+        Iterator<Shape> it = found.iterator();
+        while (it.hasNext()) {
+            Shape s = it.next();
+            if (!s.transform.createTransformedShape(s.getDrawBounds()).intersects(rect)) it.remove();
+        }
+        
+        sortFrontToBack(found);
+        return found;
+    }
+    
+    /**
+     * Find the front-most visible, event-enabled Shape drawn at a point.
+     * @param x x-coordinate of the point in Layer coordinates
+     * @param y y-coordinate of the point in Layer coordinates
+     * @return The front-most Shape hit at the point, or null if none
+     */
+    Shape pick(double x, double y) {
+        List<Shape> found = new ArrayList<>();
+        synchronized (index) {
+            updateIndex();
+            index.query(new Rectangle2D.Double(x, y, 0.0, 0.0), found);
+        }
+        sortFrontToBack(found);
+        
+        // Test candidates front to back and stop at the first hit
+        Point2D.Double pt = new Point2D.Double();
+        for (Shape s : found) {
+            if (!s.visible || !s.eventsEnabled) continue;
+            // A degenerate Shape cannot be hit
+            if (s.fromLayerCoords(x, y, pt) && s.hits(pt.x, pt.y)) return s;
+        }
+        return null;
+    }
+    
+    /**
+     * Sort a List of Shapes on this Layer so that the front-most Shape is first
+     */
+    private static void sortFrontToBack(List<Shape> list) {
+        list.sort((a, b) -> Long.compare(b.zOrder, a.zOrder));
+    }
+    
+    /**
+     * Bring the spatial index up to date with all Shapes that changed since it was last used.
+     * Shapes are indexed lazily because subclasses may finish setting their size after being added.
+     * Only the Shapes dirty on entry are visited, so writers on other threads cannot keep the caller here.
+     * Shapes changed after that are indexed on the next call and repaint themselves again anyway.
+     */
+    private void updateIndex() {
+        int remaining = indexDirty.size();
+        Iterator<Shape> it = indexDirty.iterator();
+        while (remaining-- > 0 && it.hasNext()) {
+            Shape s = it.next();
+            it.remove();
+            if (s.layer == this) index.update(s, s.getLayerBounds());
+        }
     }
     
     /**
@@ -172,7 +870,7 @@ public class Layer implements Iterable<Shape>
      */
     public void rotate(double angle) {
         transform.rotate(angle);
-        repaint();
+        transformChanged();
     }
     
     /**
@@ -187,7 +885,7 @@ public class Layer implements Iterable<Shape>
     	double sina = Math.sin(radians);
     	AffineTransform Tx = new AffineTransform(cosa, sina, -sina, cosa, cx-cx*cosa+cy*sina, cy-cx*sina-cy*cosa);
     	transform.concatenate(Tx);
-        repaint();
+        transformChanged();
     }
     
     /**
@@ -197,7 +895,7 @@ public class Layer implements Iterable<Shape>
      */
     public void translate(double deltaX, double deltaY) {
         transform.translate(deltaX, deltaY);
-        repaint();
+        transformChanged();
     }
     
     /**
@@ -206,7 +904,7 @@ public class Layer implements Iterable<Shape>
      */
     public void scale(double factor) {
         transform.scale(factor, factor);
-        repaint();
+        transformChanged();
     }
 
     /**
@@ -218,7 +916,7 @@ public class Layer implements Iterable<Shape>
     public void scale(double factor, double cx, double cy) {
     	AffineTransform Tx = new AffineTransform(factor, 0, 0, factor, cx-factor*cx, cy-factor*cy);
     	transform.concatenate(Tx);
-        repaint();
+        transformChanged();
     }
     
     /**
@@ -229,7 +927,7 @@ public class Layer implements Iterable<Shape>
      */
     public void scale(double xFactor, double yFactor) {
         transform.scale(xFactor, yFactor);
-        repaint();
+        transformChanged();
     }
     
     /**
@@ -242,7 +940,7 @@ public class Layer implements Iterable<Shape>
     public void scale(double xFactor, double yFactor, double cx, double cy) {
     	AffineTransform Tx = new AffineTransform(xFactor, 0, 0, yFactor, cx-xFactor*cx, cy-yFactor*cy);
     	transform.concatenate(Tx);
-        repaint();
+        transformChanged();
     }
     
     /**
@@ -250,7 +948,7 @@ public class Layer implements Iterable<Shape>
      */
     public void reset() {
         transform.setToIdentity();
-        repaint();
+        transformChanged();
     }
     
     /**
@@ -267,12 +965,62 @@ public class Layer implements Iterable<Shape>
      */
     public void setTransform(AffineTransform transform) {
         this.transform = transform;
+        transformChanged();
+    }
+    
+    /**
+     * Invalidate values computed from the Layer transform and repaint
+     */
+    private void transformChanged() {
+        transformVersion++;
+        repaint();
+    }
+    
+    /**
+     * Transform a point from Pad coordinates into the coordinate system of this Layer,
+     * using an inverse transform cached until the Layer transform changes.
+     * @param x     x-coordinate of the point in Pad coordinates
+     * @param y     y-coordinate of the point in Pad coordinates
+     * @param out   Receives the point in Layer coordinates
+     * @return true if the Layer transform is invertible, false if out was not set
+     */
+    boolean toLayerCoords(double x, double y, Point2D.Double out) {
+        if (inverseVersion != transformVersion) {
+            inverseVersion = transformVersion;
+            try {
+                inverse.setTransform(transform);
+                inverse.invert();
+                invertible = true;
+            } catch (NoninvertibleTransformException ex) {
+                invertible = false;
+            }
+        }
+        if (!invertible) return false;
+        out.setLocation(x, y);
+        inverse.transform(out, out);
+        return true;
     }
     
     /**
      * Repaint Layer by delegating to parent Pad object.
      */
     public void repaint() {
-        pad.repaint();
+        if (pad != null) pad.repaint();
+    }
+    
+    /**
+     * Repaint only the region of the Layer covered by a changed Shape
+     * by delegating to parent Pad object.
+     * @param s The Shape that changed
+     */
+    void repaint(Shape s) {
+        indexDirty.add(s);
+        shapesVersion++;
+        
+        // Where Shapes on a cached Layer were last painted is not tracked when the raster 
+        // is translated, so repaint the whole Pad instead of the Shape's region
+        if (pad != null) {
+            if (cached) pad.repaint(); else pad.repaint(s);
+        }
     }
 }
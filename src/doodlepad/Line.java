@@ -23,7 +23,6 @@
 package doodlepad;
 
 import java.awt.Graphics2D;
-import java.awt.BasicStroke;
 import java.awt.geom.Area;
 import java.awt.geom.Line2D;
 import java.util.Random;
@@ -36,6 +35,11 @@ import java.util.Random;
  */
 public class Line extends Shape
 {
+    /**
+     * Segment last used to draw the Line, replaced only when its end points change
+     */
+    private volatile Line2D.Double segment = null;
+    
     /**
      * Line object constructor.
      * @param   x1  The x-coordinate of the Line object's first point.
@@ -119,11 +123,9 @@ public class Line extends Shape
         if (stroked == true && strokeWidth > 0.0) {
             g.setColor(this.strokeColor);
 
-            float _strokeWidth = (float)strokeWidth;
-            //if (selected) _strokeWidth = 2.0f*_strokeWidth;
-            g.setStroke( new BasicStroke(_strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
+            g.setStroke( getDrawStroke() );
             
-            g.draw( new Line2D.Double(x, y, x+width, y+height));
+            g.draw( getSegment() );
         }
         
         // If text, draw it.
@@ -133,6 +135,28 @@ public class Line extends Shape
         if (selected) drawSelRect(g);
     }
     
+    /**
+     * Get the outline of the Line object, which is the line segment itself
+     * @return A Line2D object
+     */
+    @Override
+    java.awt.Shape getOutline() {
+        return getSegment();
+    }
+    
+    /**
+     * Return the line segment from (x, y) to (x+width, y+height), rebuilt only when the end points change
+     * @return The shared Line2D, which must not be modified
+     */
+    private Line2D.Double getSegment() {
+        Line2D.Double l = segment;
+        if (l == null || l.x1 != x || l.y1 != y || l.x2 != x+width || l.y2 != y+height) {
+            l = new Line2D.Double(x, y, x+width, y+height);
+            segment = l;
+        }
+        return l;
+    }
+    
     /**
      * Complete the area of the Line object
      * @return An Area object
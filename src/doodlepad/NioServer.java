@@ -0,0 +1,470 @@
+/*
+ * NioServer.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package doodlepad;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
+import javax.swing.SwingUtilities;
+
+/**
+ * A socket server that serves all of its connections from a small, fixed number of event loop threads
+ * using non-blocking channels and Selectors, instead of one blocking thread per connection.
+ * The first event loop also accepts new connections, which are handed out to the event loops in turn.
+ * Messages are lines of text in the platform's default charset, the same as Pad's blocking connections.
+ *
+ * @author Mark F. Russo, Ph.D.
+ * @version 1.0
+ */
+final class NioServer
+{
+    /**
+     * Receives the events raised by a NioServer. Methods are invoked on event loop threads,
+     * except closed(), which is invoked on whichever thread closes the connection.
+     */
+    interface Handler {
+        /** A connection was accepted. Invoked before any message is received on it. */
+        void opened(int id, Pad.Connection connection);
+        /** A line of text was received on a connection */
+        void received(int id, String msg);
+        /** A connection was closed */
+        void closed(int id);
+        /** An error occurred on a connection */
+        void error(int id, String msg);
+        /** The server has some information to share */
+        void serverInfo(String msg);
+        /** The server stopped listening */
+        void serverStopped();
+        /** Create the outbound queue of a new connection */
+        OutboundQueue createQueue();
+    }
+
+    /**
+     * Size of each connection's read buffer in bytes
+     */
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] loops;
+    private final Handler handler;
+    private final IntSupplier ids;
+    private final Charset charset = Charset.defaultCharset();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private int nextLoop = 0;
+
+    /**
+     * Bind a new server to a port. Call start() to begin accepting connections.
+     * @param port      The port on which to listen for connection requests
+     * @param nLoops    The number of event loop threads
+     * @param handler   Receives the events raised by the server
+     * @param ids       Supplies the unique id given to each new connection
+     * @throws IOException if the port cannot be bound
+     */
+    NioServer(int port, int nLoops, Handler handler, IntSupplier ids) throws IOException
+    {
+        this.handler = handler;
+        this.ids = ids;
+
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+
+            loops = new EventLoop[Math.max(1, nLoops)];
+            for (int i=0; i<loops.length; i++) loops[i] = new EventLoop(i);
+            serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ex) {
+            serverChannel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Start the event loop threads
+     */
+    void start() {
+        handler.serverInfo("Server listening on port " + getPort() + " with " + loops.length + " event loop(s)");
+        for (EventLoop loop : loops) loop.thread.start();
+    }
+
+    /**
+     * Return the port on which the server is listening
+     */
+    int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Stop accepting connections, close all connections served by this server, and stop the event loops
+     */
+    void close()
+    {
+        if (!closed.compareAndSet(false, true)) return;
+
+        try {
+            serverChannel.close();
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+        for (EventLoop loop : loops) loop.selector.wakeup();
+        handler.serverStopped();
+    }
+
+    /**
+     * Accept all pending connection requests and assign each to an event loop
+     */
+    private void accept()
+    {
+        while (true) {
+            SocketChannel ch;
+            try {
+                ch = serverChannel.accept();
+                if (ch == null) return;
+                ch.configureBlocking(false);
+            } catch (IOException ex) {
+                if (!closed.get()) System.err.println(ex);
+                return;
+            }
+
+            ChannelConnection conn = new ChannelConnection(ch, ids.getAsInt(), loops[nextLoop]);
+            nextLoop = (nextLoop + 1) % loops.length;
+
+            handler.opened(conn.id, conn);
+            handler.serverInfo("New connection accepted with id " + conn.id);
+            conn.loop.register(conn);
+        }
+    }
+
+    // - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+
+    /**
+     * A thread with its own Selector that performs all reads and writes for a share of the connections
+     */
+    private final class EventLoop implements Runnable
+    {
+        private final Selector selector;
+        private final Thread thread;
+
+        // Connections waiting to be registered with the selector, and connections with output to write
+        private final Queue<ChannelConnection> pendingRegister = new ConcurrentLinkedQueue<>();
+        private final Queue<ChannelConnection> pendingFlush = new ConcurrentLinkedQueue<>();
+
+        EventLoop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "doodlepad-nio-" + index);
+        }
+
+        /**
+         * Register a connection for reading. May be called from any thread.
+         */
+        void register(ChannelConnection conn) {
+            pendingRegister.add(conn);
+            selector.wakeup();
+        }
+
+        /**
+         * Ask the loop to write a connection's queued output. May be called from any thread.
+         */
+        void flush(ChannelConnection conn) {
+            pendingFlush.add(conn);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                while (!closed.get()) {
+                    selector.select();
+
+                    ChannelConnection conn;
+                    while ((conn = pendingRegister.poll()) != null) {
+                        try {
+                            conn.key = conn.channel.register(selector, SelectionKey.OP_READ, conn);
+                            if (!conn.outbound.isEmpty() || conn.outbound.isShutdown()) conn.write();
+                        } catch (ClosedChannelException ex) {
+                            conn.closeNow();
+                        }
+                    }
+                    while ((conn = pendingFlush.poll()) != null) {
+                        conn.flushQueued.set(false);
+                        if (conn.key != null) conn.write();
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) continue;
+
+                        try {
+                            if (key.isAcceptable()) {
+                                accept();
+                                continue;
+                            }
+
+                            conn = (ChannelConnection)key.attachment();
+                            if (key.isReadable()) conn.read();
+                            if (key.isValid() && key.isWritable()) conn.write();
+                        } catch (CancelledKeyException ex) {
+                            // Another thread closed the connection after the key was selected.
+                            // Only that connection is affected, so keep serving the others.
+                            if (key.attachment() instanceof ChannelConnection) {
+                                ((ChannelConnection)key.attachment()).closeNow();
+                            }
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                System.err.println(ex);
+            } finally {
+                // Write what each socket will still take without waiting, then close every connection served by this loop
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof ChannelConnection) {
+                        ChannelConnection conn = (ChannelConnection)key.attachment();
+                        if (key.isValid()) conn.write();
+                        conn.closeNow();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ex) {
+                    System.err.println(ex);
+                }
+            }
+        }
+    }
+
+    // - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+
+    /**
+     * A connection served by an event loop. Messages may be sent from any thread.
+     * Reads and writes on the channel happen only on the event loop thread.
+     */
+    private final class ChannelConnection implements Pad.Connection
+    {
+        private final SocketChannel channel;
+        private final int id;
+        private final EventLoop loop;
+        private SelectionKey key = null;
+        private final AtomicBoolean connClosed = new AtomicBoolean(false);
+
+        // Encoded messages waiting to be written, and whether the loop has been asked to write them
+        private final OutboundQueue outbound = handler.createQueue();
+        private final AtomicBoolean flushQueued = new AtomicBoolean(false);
+
+        // Read state: undecoded bytes, decoded characters, the partial line, and whether to skip a '\n' after '\r'
+        private final ByteBuffer readBuf = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final CharBuffer charBuf = CharBuffer.allocate(READ_BUFFER_SIZE);
+        private final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final StringBuilder line = new StringBuilder();
+        private boolean skipLF = false;
+        private boolean inputDone = false;
+
+        ChannelConnection(SocketChannel channel, int id, EventLoop loop) {
+            this.channel = channel;
+            this.id = id;
+            this.loop = loop;
+        }
+
+        /**
+         * Queue a message followed by a line separator, to be written by the event loop
+         * @param msg The message to send.
+         */
+        @Override
+        public void send(String msg)
+        {
+            sendEncoded(OutboundQueue.encodeLine(msg));
+        }
+
+        /**
+         * Queue an encoded line, to be written by the event loop
+         * @param line The encoded line
+         */
+        @Override
+        public void sendEncoded(ByteBuffer line)
+        {
+            if (connClosed.get()) {
+                handler.error(id, "Cannot send. Socket is closed.");
+                return;
+            }
+
+            // Neither the event loop thread nor the event dispatch thread may wait on the queue
+            boolean mayBlock = Thread.currentThread() != loop.thread && !SwingUtilities.isEventDispatchThread();
+            if (!outbound.offer(line, mayBlock)) {
+                if (outbound.isShutdown()) {
+                    if (!connClosed.get()) handler.error(id, "Cannot send. Socket is closing.");
+                } else if (outbound.getPolicy() == Pad.SendPolicy.BLOCK) {
+                    // BLOCK only refuses a message when the sender is interrupted while waiting for room
+                    handler.error(id, "Send interrupted. Message dropped.");
+                } else {
+                    handler.error(id, "Send queue full. Closing connection.");
+                    closeNow();
+                }
+                return;
+            }
+            if (flushQueued.compareAndSet(false, true)) loop.flush(this);
+        }
+
+        /**
+         * Return the queue of messages waiting to be written
+         */
+        @Override
+        public OutboundQueue outbound() {
+            return outbound;
+        }
+
+        /**
+         * Close the channel once all queued messages have been written. Messages sent after this call are refused.
+         */
+        @Override
+        public void close()
+        {
+            if (connClosed.get()) return;
+            
+            // Refuse new messages, then have the event loop finish the queue and close the channel
+            outbound.shutdown();
+            if (flushQueued.compareAndSet(false, true)) loop.flush(this);
+        }
+
+        /**
+         * Close the channel immediately, discarding unsent messages, and notify the handler.
+         * Only the first call has any effect.
+         */
+        private void closeNow()
+        {
+            if (!connClosed.compareAndSet(false, true)) return;
+            outbound.close();
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                handler.error(id, "While closing client: " + ex);
+            }
+            handler.closed(id);
+        }
+
+        /**
+         * Read what is available and deliver each complete line. Invoked on the event loop thread.
+         */
+        private void read()
+        {
+            int n;
+            try {
+                n = channel.read(readBuf);
+            } catch (IOException ex) {
+                closeNow();
+                return;
+            }
+
+            readBuf.flip();
+            CoderResult result;
+            do {
+                result = decoder.decode(readBuf, charBuf, n < 0);
+                charBuf.flip();
+                scanLines();
+                charBuf.clear();
+            } while (result.isOverflow());
+            readBuf.compact();
+
+            // At end of stream, deliver any final unterminated line, stop reading, 
+            // and close once queued output is written
+            if (n < 0) {
+                if (line.length() > 0) deliver();
+                inputDone = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                close();
+            }
+        }
+
+        /**
+         * Split decoded characters into lines ending in '\n', '\r' or "\r\n", as BufferedReader.readLine() does
+         */
+        private void scanLines()
+        {
+            while (charBuf.hasRemaining()) {
+                char c = charBuf.get();
+                if (c == '\n') {
+                    if (skipLF) {
+                        skipLF = false;
+                    } else {
+                        deliver();
+                    }
+                } else if (c == '\r') {
+                    deliver();
+                    skipLF = true;
+                } else {
+                    skipLF = false;
+                    line.append(c);
+                }
+            }
+        }
+
+        private void deliver() {
+            handler.received(id, line.toString());
+            line.setLength(0);
+        }
+
+        /**
+         * Write queued output until done or the socket buffer fills. Invoked on the event loop thread.
+         * If the connection is closing, close the channel once everything has been written.
+         */
+        private void write()
+        {
+            if (connClosed.get()) return;
+            try {
+                // Until the socket can take everything, also wait for it to become writable
+                boolean done = outbound.writeTo(channel);
+                if (done && outbound.isShutdown()) {
+                    closeNow();
+                    return;
+                }
+                int ops = inputDone ? 0 : SelectionKey.OP_READ;
+                key.interestOps(done ? ops : ops | SelectionKey.OP_WRITE);
+            } catch (IOException ex) {
+                handler.error(id, "Problem sending message: " + ex);
+                closeNow();
+            } catch (CancelledKeyException ex) {
+                // The connection was closed by another thread
+                closeNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * OffscreenPad.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package doodlepad;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+
+/**
+ * A drawing surface that holds Layers and Shapes like a Pad, but has no window.
+ * Scenes are rendered on demand into a BufferedImage using the same drawing path as Pad,
+ * so an OffscreenPad may be used where no display is available, including with java.awt.headless=true.
+ * Shapes are added to an OffscreenPad by passing one of its Layers to the Shape constructor.
+ * 
+ * @author Mark F. Russo, Ph.D.
+ * @version 1.0
+ */
+public class OffscreenPad implements Iterable<Shape>
+{
+    /**
+     * Layers on the OffscreenPad
+     */
+    private final List<Layer> layers = new CopyOnWriteArrayList<>();
+    
+    /**
+     * Dimensions of rendered images
+     */
+    private int width;
+    private int height;
+    
+    /**
+     * Color used to clear the image before drawing
+     */
+    private Color background;
+    
+    /**
+     * Renders Layers in parallel tiles, or null to render them one after another
+     */
+    private TileRenderer tileRenderer = null;
+    
+    /**
+     * Simple OffscreenPad constructor taking only image dimensions
+     * @param width The width of rendered images
+     * @param height The height of rendered images
+     */
+    public OffscreenPad(int width, int height) {
+        this(width, height, Color.WHITE);
+    }
+    
+    /**
+     * Constructor for objects of class OffscreenPad
+     * @param width The width of rendered images
+     * @param height The height of rendered images
+     * @param background The default color of the background
+     */
+    public OffscreenPad(int width, int height, Color background) {
+        this.width = width;
+        this.height = height;
+        this.background = background;
+        
+        // Create the default Layer
+        layers.add(new Layer(null));
+    }
+    
+    /**
+     * Get the default layer for the OffscreenPad.
+     * @return Default shape Layer.
+     */
+    public Layer getLayer() {
+        return layers.get(0);
+    }
+    
+    /**
+     * Get a Layer given its index
+     * @param idx The index of the Layer
+     * @return Layer at index idx
+     */
+    public Layer getLayer(int idx) {
+        return layers.get(idx);
+    }
+    
+    /**
+     * Add a new Layer, which is drawn above all existing Layers
+     * @return idx The new Layer`s index
+     */
+    public int addLayer() {
+        layers.add(new Layer(null));
+        return layers.size() - 1;
+    }
+    
+    /**
+     * Add an existing Layer, such as a ParticleLayer, above all existing Layers
+     * @param layer The Layer to add, which must have been constructed without a Pad
+     * @return idx The new Layer`s index
+     */
+    public int addLayer(Layer layer) {
+        if (layer.getPad() != null) throw new IllegalArgumentException("Layer belongs to a Pad");
+        if (layers.contains(layer)) return layers.indexOf(layer);
+        layers.add(layer);
+        return layers.size() - 1;
+    }
+    
+    /**
+     * Remove a Layer given the layer index.
+     * Do nothing when index of Layer is 0, the default Layer
+     * @param idx Index of Layer to remove.
+     */
+    public void removeLayer(int idx) {
+        if (idx == 0) return;
+        if (idx > 0 && idx < layers.size()) layers.remove(idx);
+    }
+    
+    /**
+     * Return the number of Layers
+     * @return Number of Layers
+     */
+    public int getLayerCount() {
+        return layers.size();
+    }
+    
+    /**
+     * Remove all Shapes from all Layers
+     */
+    public void clear() {
+        for (Layer layer : layers) layer.clear();
+    }
+    
+    /**
+     * Return an ArrayList of all Shape objects on all Layers
+     * @return An ArrayList&lt;Shape&gt; of all Shapes being managed
+     */
+    public ArrayList<Shape> getShapes() {
+        ArrayList<Shape> allShapes = new ArrayList<>();
+        for (Layer layer : layers) allShapes.addAll(layer.shapeList());
+        return allShapes;
+    }
+    
+    /**
+     * Return an iterator for loop over all Shapes
+     * @return Iterator&lt;Shape&gt; for Shapes
+     */
+    @Override
+    public Iterator<Shape> iterator() {
+        return getShapes().iterator();
+    }
+    
+    /**
+     * Return the width of rendered images
+     * @return Image width
+     */
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * Return the height of rendered images
+     * @return Image height
+     */
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * Change the dimensions of rendered images
+     * @param width The new width
+     * @param height The new height
+     */
+    public void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+    
+    /**
+     * Set the background color used to clear rendered images
+     * @param color the Color to be used for the background
+     */
+    public void setBackground(Color color) {
+        this.background = color;
+    }
+    
+    /**
+     * Return the current background color used to clear rendered images
+     * @return Color object used for the background
+     */
+    public Color getBackground() {
+        return background;
+    }
+    
+    /**
+     * Render all Layers into a new image
+     * @return A new BufferedImage holding the rendered scene
+     */
+    public BufferedImage render() {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        render(img);
+        return img;
+    }
+    
+    /**
+     * Render all Layers into an existing image, replacing its contents.
+     * Reusing one image avoids allocating a new image for every render.
+     * @param img The image into which to render
+     */
+    public void render(BufferedImage img) {
+        Graphics2D g2 = img.createGraphics();
+        try {
+            render(g2, new Rectangle2D.Double(0.0, 0.0, img.getWidth(), img.getHeight()));
+        } finally {
+            g2.dispose();
+        }
+    }
+    
+    /**
+     * Render a region of all Layers onto a Graphics2D object
+     * @param g2    The Graphics2D object on which to draw
+     * @param clip  The region to render in OffscreenPad coordinates
+     */
+    public void render(Graphics2D g2, Rectangle2D clip) {
+        // Use antialiasing to match what is drawn on a Pad
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        
+        // Clear the background to start drawing anew
+        g2.setColor(background);
+        g2.fill(clip);
+        
+        if (tileRenderer != null) {
+            tileRenderer.render(g2, layers.toArray(new Layer[0]), clip, width, height);
+        } else {
+            for (Layer layer : layers) {
+                layer.draw(g2, clip, width, height);
+            }
+        }
+    }
+    
+    /**
+     * Turn parallel tiled rendering on or off. When on, the image is split into square tiles
+     * that are rendered in parallel on the common ForkJoinPool and then composited.
+     * This speeds up rendering of large images with many Shapes on machines with several cores.
+     * @param tiled true to render in parallel tiles
+     */
+    public void setTiledRendering(boolean tiled) {
+        setTiledRendering(tiled, TileRenderer.DEFAULT_TILE_SIZE);
+    }
+    
+    /**
+     * Turn parallel tiled rendering on or off, with a given tile size
+     * @param tiled     true to render in parallel tiles
+     * @param tileSize  Width and height of each tile in pixels
+     */
+    public void setTiledRendering(boolean tiled, int tileSize) {
+        tileRenderer = tiled ? new TileRenderer(tileSize, ForkJoinPool.commonPool()) : null;
+    }
+    
+    /**
+     * Return whether parallel tiled rendering is on
+     * @return true if rendering in parallel tiles
+     */
+    public boolean isTiledRendering() {
+        return tileRenderer != null;
+    }
+    
+    /**
+     * Render all Layers and save the result to the given file path.
+     * @param path  Full path to where new file is to be saved. Must include file extension png or tiff
+     * @return      true if successful, false otherwise
+     */
+    public boolean save(String path) {
+        BufferedImage img = render();
+        try {
+            String lpath = path.trim().toLowerCase();
+            String type;
+            if (lpath.endsWith(".png")) {
+                type = "png";
+            } else if (lpath.endsWith(".tiff")) {
+                type = "tiff";
+            } else {
+                System.out.println("Unsupported image file type. Try file extensions png or tiff");
+                return false;
+            }
+            if (!ImageIO.write(img, type, new File(path))) {
+                System.out.println("Unable to write image of type " + type.toUpperCase());
+                return false;
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+        return true;
+    }
+}
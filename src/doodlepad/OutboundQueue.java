@@ -0,0 +1,316 @@
+/*
+ * OutboundQueue.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package doodlepad;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * A bounded queue of encoded messages waiting to be written to one connection.
+ * Any thread may add messages. One I/O thread at a time writes them, several messages per write.
+ * When a message does not fit, the queue's Pad.SendPolicy decides what happens.
+ * A queue that is shut down refuses new messages but is still written until empty,
+ * while a queue that is closed discards everything.
+ * The queue also keeps the counters reported by ConnectionStats.
+ *
+ * @author Mark F. Russo, Ph.D.
+ * @version 1.0
+ */
+final class OutboundQueue
+{
+    /**
+     * Default capacity of a queue in bytes
+     */
+    static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /**
+     * Most buffers handed to the channel in one gathering write
+     */
+    private static final int MAX_GATHER = 16;
+
+    /**
+     * Interval over which the send rate is measured
+     */
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    /**
+     * Charset and line separator used to encode messages, matching a PrintWriter on the socket
+     */
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(CHARSET);
+
+    /**
+     * Buffer in which messages are combined before a write to a stream, one per writing thread
+     */
+    private static final ThreadLocal<byte[]> staging = ThreadLocal.withInitial(() -> new byte[16384]);
+
+    private final int capacity;
+    private final Pad.SendPolicy policy;
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private int inFlight = 0;
+    private boolean shutdown = false;
+    private boolean closed = false;
+
+    // Bytes not yet written, and counters
+    private long queuedBytes = 0;
+    private long bytesSent = 0;
+    private long messagesSent = 0;
+    private long messagesDropped = 0;
+
+    // Send rate over the last complete window, or over the first window until it completes
+    private long rateStart = System.nanoTime();
+    private long rateBytes = 0;
+    private double bytesPerSecond = 0.0;
+    private boolean rateMeasured = false;
+
+    /**
+     * Create an empty queue
+     * @param capacity  Most bytes queued before the policy applies
+     * @param policy    What to do with a message that does not fit
+     */
+    OutboundQueue(int capacity, Pad.SendPolicy policy) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+    }
+
+    /**
+     * Encode a message followed by a line separator, as PrintWriter.println() on the socket would
+     * @param msg The message
+     * @return A buffer holding the encoded line, ready to be read
+     */
+    static ByteBuffer encodeLine(String msg) {
+        ByteBuffer encoded = CHARSET.encode(msg);
+        ByteBuffer buf = ByteBuffer.allocate(encoded.remaining() + LINE_SEPARATOR.length);
+        buf.put(encoded).put(LINE_SEPARATOR).flip();
+        return buf;
+    }
+
+    /**
+     * Add an encoded message to the queue. A message always fits in an empty queue.
+     * If it does not fit, DROP_OLDEST discards the oldest messages not yet begun until it does,
+     * BLOCK waits for the writer to make room, and DISCONNECT refuses it.
+     * @param buf       The message. Its remaining bytes are written.
+     * @param mayBlock  false if the caller must not wait, in which case BLOCK accepts the message anyway
+     * @return false if the message was not queued, because the queue is shut down, the message was refused,
+     *         or a BLOCK sender was interrupted while waiting for room
+     */
+    synchronized boolean offer(ByteBuffer buf, boolean mayBlock)
+    {
+        if (closed || shutdown) return false;
+
+        int size = buf.remaining();
+        if (queuedBytes > 0 && queuedBytes + size > capacity) {
+            switch (policy) {
+                case DROP_OLDEST:
+                    // Skip messages being written or partly written, so no message is cut short
+                    Iterator<ByteBuffer> it = buffers.iterator();
+                    for (int i=0; i<inFlight && it.hasNext(); i++) it.next();
+                    while (it.hasNext() && queuedBytes + size > capacity) {
+                        ByteBuffer b = it.next();
+                        if (b.position() != 0) continue;
+                        queuedBytes -= b.remaining();
+                        messagesDropped++;
+                        it.remove();
+                    }
+                    break;
+
+                case BLOCK:
+                    while (mayBlock && !closed && !shutdown && queuedBytes > 0 && queuedBytes + size > capacity) {
+                        try {
+                            wait();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            messagesDropped++;
+                            return false;
+                        }
+                    }
+                    if (closed || shutdown) return false;
+                    break;
+
+                case DISCONNECT:
+                    messagesDropped++;
+                    return false;
+            }
+        }
+
+        buffers.addLast(buf);
+        queuedBytes += size;
+        return true;
+    }
+
+    /**
+     * Return the policy applied to messages that do not fit
+     */
+    Pad.SendPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Return true if nothing is waiting to be written
+     */
+    synchronized boolean isEmpty() {
+        return buffers.isEmpty();
+    }
+
+    /**
+     * Stop accepting messages while keeping those already queued, so the writer can finish them.
+     * Releases any blocked senders.
+     */
+    synchronized void shutdown() {
+        shutdown = true;
+        notifyAll();
+    }
+
+    /**
+     * Return true if the queue no longer accepts messages, because it was shut down or closed
+     */
+    synchronized boolean isShutdown() {
+        return shutdown || closed;
+    }
+
+    /**
+     * Close the queue, discarding anything not yet written and releasing any blocked senders
+     */
+    synchronized void close() {
+        closed = true;
+        buffers.clear();
+        queuedBytes = 0;
+        notifyAll();
+    }
+
+    /**
+     * Write everything queued to a blocking stream, combining messages into as few writes as possible.
+     * Only one thread may write at a time.
+     * @param out The stream to write to. It is not flushed.
+     * @throws IOException if the write fails
+     */
+    void writeTo(OutputStream out) throws IOException
+    {
+        byte[] buf = staging.get();
+        int n;
+        while ((n = peek()) > 0) {
+            int len = 0;
+            long total = 0;
+            for (int i=0; i<n; i++) {
+                ByteBuffer b = gather[i];
+                gather[i] = null;
+                while (b.hasRemaining()) {
+                    int k = Math.min(b.remaining(), buf.length - len);
+                    b.get(buf, len, k);
+                    len += k;
+                    total += k;
+                    if (len == buf.length) {
+                        out.write(buf, 0, len);
+                        len = 0;
+                    }
+                }
+            }
+            if (len > 0) out.write(buf, 0, len);
+            written(total);
+        }
+    }
+
+    /**
+     * Write as much as a non-blocking channel will take, handing it several messages in each gathering write.
+     * Only one thread may write at a time.
+     * @param ch The channel to write to
+     * @return true if the queue was emptied, false if the channel is full
+     * @throws IOException if the write fails
+     */
+    boolean writeTo(GatheringByteChannel ch) throws IOException
+    {
+        int n;
+        while ((n = peek()) > 0) {
+            long k = (n == 1) ? ch.write(gather[0]) : ch.write(gather, 0, n);
+            boolean full = gather[n-1].hasRemaining();
+            for (int i=0; i<n; i++) gather[i] = null;
+            written(k);
+            if (full) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copy references to the oldest queued buffers into gather[] and return how many.
+     * They stay queued, and are not dropped, until written() accounts for them.
+     */
+    private synchronized int peek() {
+        int n = 0;
+        for (ByteBuffer b : buffers) {
+            if (n == MAX_GATHER) break;
+            gather[n++] = b;
+        }
+        inFlight = n;
+        return n;
+    }
+
+    /**
+     * Account for bytes written, and remove messages that are completely written
+     */
+    private synchronized void written(long bytes)
+    {
+        inFlight = 0;
+        if (closed) return;
+
+        queuedBytes -= bytes;
+        bytesSent += bytes;
+        rateBytes += bytes;
+        while (!buffers.isEmpty() && !buffers.peekFirst().hasRemaining()) {
+            buffers.pollFirst();
+            messagesSent++;
+        }
+        updateRate(System.nanoTime());
+        notifyAll();
+    }
+
+    /**
+     * Start a new rate window if the current one is complete
+     */
+    private void updateRate(long now) {
+        long elapsed = now - rateStart;
+        if (elapsed >= RATE_WINDOW_NANOS) {
+            bytesPerSecond = rateBytes * 1.0e9 / elapsed;
+            rateStart = now;
+            rateBytes = 0;
+            rateMeasured = true;
+        } else if (!rateMeasured && elapsed > 0) {
+            bytesPerSecond = rateBytes * 1.0e9 / elapsed;
+        }
+    }
+
+    /**
+     * Return a snapshot of the queue's counters
+     * @param id The id of the connection the queue belongs to
+     */
+    synchronized ConnectionStats getStats(int id) {
+        updateRate(System.nanoTime());
+        return new ConnectionStats(id, buffers.size(), queuedBytes, capacity, policy,
+                messagesSent, bytesSent, messagesDropped, bytesPerSecond);
+    }
+}
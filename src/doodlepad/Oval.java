@@ -23,7 +23,6 @@
 package doodlepad;
 
 import java.awt.Graphics2D;
-import java.awt.BasicStroke;
 import java.awt.geom.Area;
 import java.awt.geom.Ellipse2D;
 import java.util.Random;
@@ -36,6 +35,11 @@ import java.util.Random;
  */
 public class Oval extends Shape
 {   
+    /**
+     * Ellipse last used to draw the Oval, replaced only when its location or size changes
+     */
+    private volatile Ellipse2D.Double ellipse = null;
+    
     /**
      * Constructor for the Oval object.
      * @param   x       The x-coordinate of the upper left-hand corner of the Oval object.
@@ -101,8 +105,7 @@ public class Oval extends Shape
     @Override
     public void draw(Graphics2D g)
     {
-        // Create the shape
-        Ellipse2D.Double ellipse = new Ellipse2D.Double(x, y, width, height);
+        Ellipse2D.Double ellipse = getEllipse();
         
         if (filled == true) {
             g.setColor(this.fillColor);
@@ -112,8 +115,7 @@ public class Oval extends Shape
         if (stroked == true && strokeWidth > 0.0) {
             g.setColor(this.strokeColor);
             
-            float _strokeWidth = (float)strokeWidth;
-            g.setStroke( new BasicStroke(_strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
+            g.setStroke( getDrawStroke() );
             g.draw(ellipse);
         }
         
@@ -124,6 +126,28 @@ public class Oval extends Shape
         if (selected) drawSelRect(g);
     }
     
+    /**
+     * Return the ellipse outlining the Oval, rebuilt only when the Oval's location or size changes
+     * @return The shared Ellipse2D, which must not be modified
+     */
+    private Ellipse2D.Double getEllipse() {
+        Ellipse2D.Double e = ellipse;
+        if (e == null || e.x != x || e.y != y || e.width != width || e.height != height) {
+            e = new Ellipse2D.Double(x, y, width, height);
+            ellipse = e;
+        }
+        return e;
+    }
+    
+    /**
+     * Get the outline of the Oval object, which is its ellipse
+     * @return An Ellipse2D object
+     */
+    @Override
+    java.awt.Shape getOutline() {
+        return getEllipse();
+    }
+    
     /**
      * Complete the area of the Oval object
      * @return An Area object
@@ -24,17 +24,27 @@ package doodlepad;
 
 import java.util.List;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Set;
 import java.util.Iterator;
 import java.util.Enumeration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.LinkedHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.lang.ref.WeakReference;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.net.Socket;
 import java.net.ServerSocket;
 import java.net.Inet4Address;
@@ -49,6 +59,7 @@ import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.awt.event.*;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import javax.swing.JPanel;
@@ -94,10 +105,72 @@ public class Pad extends JFrame implements Iterable<Shape>
     private boolean eventsEnabled = false;
     
     /**
-     * This HashMap should not leak ShapeMouseListener objects
-     * because the HashMap is rebuilt every time the paint() method is called.
+     * Listeners of Shapes drawn on the hit-detection image, indexed by the hit key
+     * packed into the RGB value of each pixel. Slots of removed Shapes are cleared
+     * and their keys recycled, so this array does not leak ShapeMouseListener objects.
      */
-    private HashMap<Color, ShapeMouseListener> hitHash;
+    private ShapeMouseListener[] hitListeners = new ShapeMouseListener[256];
+    
+    /**
+     * Next never-used key to hand out to a Shape drawn on the hit-detection image
+     */
+    private int nextHitKey = 0;
+    
+    /**
+     * Keys of removed Shapes that may be handed out again
+     */
+    private int[] freeHitKeys = new int[16];
+    private int freeHitKeyCount = 0;
+    
+    /**
+     * Keys of removed Shapes that may still appear in the hit-detection image,
+     * and the region of the image in which they may appear
+     */
+    private int[] releasedHitKeys = new int[16];
+    private int releasedHitKeyCount = 0;
+    private Rectangle2D.Double releasedHitBounds = null;
+    
+    /**
+     * Reusable buffer for reading a pixel of the hit-detection image
+     */
+    private final int[] hitPixel = new int[1];
+    
+    /**
+     * Lock that protects hit key bookkeeping from Shapes removed off the event dispatch thread
+     */
+    private final Object hitKeyLock = new Object();
+    
+    /**
+     * Region of the hit-detection image that is out of date, or null if it is current
+     */
+    private java.awt.Rectangle hitDirty = null;
+    
+    /**
+     * Number of paints since the hit-detection image was last brought up to date
+     */
+    private int hitPaintsPending = 0;
+    
+    /**
+     * Number of times the hit-detection image was redrawn, 
+     * and the number of paints whose hit image redraw was skipped
+     */
+    private long hitImageRebuilds = 0;
+    private long hitImageRebuildsAvoided = 0;
+    
+    /**
+     * The strategies available for determining which Shape is under the mouse
+     */
+    public enum HitTestMode {
+        /** Draw every event-enabled Shape to an off-screen image with a unique color and read back the pixel */
+        IMAGE,
+        /** Test Shape geometry directly using each Layer's spatial index. No hit image is drawn. */
+        GEOMETRIC
+    }
+    
+    /**
+     * The strategy currently used to determine which Shape is under the mouse
+     */
+    private HitTestMode hitTestMode = HitTestMode.IMAGE;
     
     /**
      * In-memory image used to determine target shapes for mouse events.
@@ -114,6 +187,23 @@ public class Pad extends JFrame implements Iterable<Shape>
      */
     private double tickRate = 60.0;
     
+    /**
+     * The component that currently receives mouse events and shows the Pad's drawing:
+     * cvs normally, or activeCanvas while active rendering is on
+     */
+    private java.awt.Component surface;
+    
+    /**
+     * Canvas with a BufferStrategy and the render loop used for active rendering, or null when off
+     */
+    private java.awt.Canvas activeCanvas = null;
+    private ActiveRenderer activeRenderer = null;
+    
+    /**
+     * True when ticks are to be raised by the active render loop
+     */
+    private volatile boolean activeTicking = false;
+    
     /**
      * Lists of custom listeners registered to receive events
      */
@@ -121,6 +211,11 @@ public class Pad extends JFrame implements Iterable<Shape>
     private java.util.List<PadMouseListener> mouseListeners = new ArrayList<>();
     private java.util.List<PadKeyListener>   keyListeners = new ArrayList<>();
     
+    /**
+     * Timings and counters of recently rendered frames
+     */
+    private final RenderStats renderStats = new RenderStats(RenderStats.DEFAULT_CAPACITY);
+    
     /**
      * Create a new Pad object, properly invoking on the event dispatch thread.
      */
@@ -214,17 +309,83 @@ public class Pad extends JFrame implements Iterable<Shape>
     private PadKeyTypedEventHandler keyTypedHandler = null;
     private PadTimerEventHandler    tickHandler = null;
     
-    // Flag indicating if dragging is underway.
-    private boolean dragging = false;
+    /**
+     * Shapes that changed since their regions were last flushed to the canvas.
+     * May be added to from any thread. Flushed on the event dispatch thread.
+     */
+    private final Set<Shape> dirtyShapes = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    
+    /**
+     * Flag indicating that a flush of dirtyShapes has been scheduled
+     */
+    private final AtomicBoolean dirtyFlushPending = new AtomicBoolean(false);
+    
+    /**
+     * Number of open update batches. While positive, repaints are collected rather than scheduled.
+     */
+    private final AtomicInteger batchDepth = new AtomicInteger(0);
+    
+    /**
+     * Flag indicating that a full repaint was requested while a batch was open
+     */
+    private volatile boolean batchFullRepaint = false;
+    
+    /**
+     * Renders Layers in parallel tiles, or null to render them one after another on the event dispatch thread
+     */
+    private volatile TileRenderer tileRenderer = null;
+    
+    /**
+     * Maximum number of separate dirty regions repainted before merging them all into one
+     */
+    private static final int MAX_DIRTY_REGIONS = 8;
+    
+    // The drag underway, or null if no drag is in progress.
+    private DragSession dragSession = null;
 
     // Class that manages the listening server socket on a separate thread
     private ServerHandler server;
     
+    // Non-blocking server that serves all connections from a few event loop threads, if listening in that mode
+    private NioServer nioServer;
+    
+    // Number of event loop threads used by the next non-blocking server, or 0 to use a thread per connection
+    private volatile int serverEventLoops = 0;
+    
+    // Runs the server accept loop and each connection's read loop, or null to start a new platform Thread for each
+    private volatile Executor networkExecutor = null;
+    
+    // Virtual thread executor created by setVirtualThreads(), shut down when replaced
+    private ExecutorService virtualExecutor = null;
+    
+    // Capacity in bytes and full-queue policy of the outbound queues of connections opened from now on
+    private volatile int sendCapacity = OutboundQueue.DEFAULT_CAPACITY;
+    private volatile SendPolicy sendPolicy = SendPolicy.BLOCK;
+    
+    // Threads that write outbound queues of blocking connections when there is no network Executor
+    private static ExecutorService sendPool = null;
+    
     // Counter to hand out client ids. Guarantees atomic operations to prevent concurrency issues.
     private final AtomicInteger connectionCount = new AtomicInteger();
     
     // Map of a counter to all currently connected clientConnections
-    private final ConcurrentHashMap<Integer, ClientConnection> clientConnections = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Connection> clientConnections = new ConcurrentHashMap<>();
+    
+    /**
+     * Socket events raised off the event dispatch thread, waiting to be delivered on it in order.
+     * May be added to from any thread. Drained on the event dispatch thread.
+     */
+    private final ConcurrentLinkedQueue<SocketEvent> socketEvents = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * Flag indicating that a drain of socketEvents has been scheduled
+     */
+    private final AtomicBoolean socketEventsPending = new AtomicBoolean(false);
+    
+    /**
+     * Most socket events delivered in one turn of the event dispatch thread, so that input events are not starved
+     */
+    private static final int MAX_SOCKET_EVENTS_PER_TURN = 10000;
     
     /**
      * Inner class extending JPanel and performing core paint operations
@@ -246,79 +407,13 @@ public class Pad extends JFrame implements Iterable<Shape>
             // Execute base class paint() method
             super.paintComponent(g);
             
-            // Use Graphics2D api with antialising enabled
             Graphics2D g2 = (Graphics2D)g;
-            g2.setRenderingHint(java.awt.RenderingHints.KEY_ANTIALIASING, java.awt.RenderingHints.VALUE_ANTIALIAS_ON);
-
-            // Clear the background to start drawing anew
-            g2.setColor(background);
-            g2.fillRect(0, 0, getWidth(), getHeight());
-
-            // Get ready to draw to the in-memory image used for hit detection
-            Graphics2D gh = (Graphics2D)hitImg.createGraphics();
-            gh.setRenderingHint(java.awt.RenderingHints.KEY_ANTIALIASING, java.awt.RenderingHints.VALUE_ANTIALIAS_OFF);
-            gh.setColor( Color.white );
-            gh.fillRect(0, 0, getWidth(), getHeight());
-
-            // Clear the shape hash
-            hitHash.clear();
-
-            // Set the initial transform for the entire Pad
-            // !!! This may break printing.
-            // !!! It may be necessary to store the transform here
-            // !!! and then reapply it before this method completes.
-            int count = 0;
-            for (int l=0; l<layers.size(); l++) {
-                Layer layer = layers.get(l);
-                
-                AffineTransform saveTransform = g2.getTransform();
-                g2.transform( layer.transform );
-                gh.transform( layer.transform );
-                
-                List<Shape> shapes = layer.getShapes();
-                for (int i=0; i<shapes.size(); i++) {
-                    // Get the shape
-                    Shape s = shapes.get(i);
-
-                    // If visible, add the Shape`s transform and draw the shape on the main Pad
-                    if (s.visible) {
-                        // Save a copy of the Pad transform
-                        AffineTransform g2at = g2.getTransform();
-
-                        // Apply the Shape transform
-                        g2.transform( s.transform );
-                        s.draw(g2);
-
-                        // If the Shape is configured to receive events, draw to the internal hit Graphic2D
-                        // image with consecutive fill color and store shape in HashMap
-                        if (s.eventsEnabled) {
-                            // Save a copy of the Pad transform
-                            AffineTransform ghat = gh.getTransform();
-
-                            // Apply the Shape transform
-                            gh.transform( s.transform );
-
-                            // Draw the shape filled and stroked, with color corresponding to hash key
-                            Color key = new Color(count++);
-                            s.draw(gh, key);
-                            hitHash.put(key, s.shapeListener);
-
-                            // Reset the Pad transform
-                            gh.setTransform(ghat);
-                        }
-                        // Reset the Pad transform
-                        g2.setTransform(g2at);
-                    }
-
-                    // Draw hit-image to main pad canvas for debugging
-                    //g.drawImage(hitImg, 0, 0, this);
-                }
 
-                // Restore the original transforms
-                g2.setTransform(saveTransform);
-                gh.setTransform(saveTransform);
-                
-            }
+            // Only the clipped region needs to be redrawn
+            java.awt.Rectangle clip = g2.getClipBounds();
+            if (clip == null) clip = new java.awt.Rectangle(0, 0, getWidth(), getHeight());
+            
+            renderScene(g2, clip, getWidth(), getHeight());
             
             // Allow Pad subclasses to do custom drawing
             //g2D = g2;
@@ -327,7 +422,6 @@ public class Pad extends JFrame implements Iterable<Shape>
             
             // Clean up
             g2.dispose();
-            gh.dispose();
             g.dispose();
         }
     };
@@ -380,6 +474,187 @@ public class Pad extends JFrame implements Iterable<Shape>
         }
     };
     
+    /**
+     * Draw the background and all Layers within a region of the drawing surface.
+     * Used both by the Swing paint cycle and by active rendering.
+     * @param g2        Graphics2D object on which to draw
+     * @param clip      The region to redraw
+     * @param width     Width of the drawing surface
+     * @param height    Height of the drawing surface
+     */
+    private void renderScene(Graphics2D g2, java.awt.Rectangle clip, int width, int height)
+    {
+        // Layers added or removed on other threads take effect on the next frame
+        Layer[] frameLayers = layers.toArray(new Layer[0]);
+        renderStats.beginFrame(frameLayers.length);
+        
+        // Use Graphics2D api with antialising enabled
+        g2.setRenderingHint(java.awt.RenderingHints.KEY_ANTIALIASING, java.awt.RenderingHints.VALUE_ANTIALIAS_ON);
+        
+        // Clear the background to start drawing anew
+        long t0 = System.nanoTime();
+        g2.setColor(background);
+        g2.fillRect(clip.x, clip.y, clip.width, clip.height);
+        renderStats.recordClear(System.nanoTime() - t0);
+        
+        // Draw all Layers using the same path as OffscreenPad
+        // !!! This may break printing.
+        // !!! It may be necessary to store the transform here
+        // !!! and then reapply it before this method completes.
+        TileRenderer tiles = tileRenderer;
+        if (tiles != null) {
+            // Tiles draw all Layers together, so the time is recorded against the first Layer
+            t0 = System.nanoTime();
+            tiles.render(g2, frameLayers, clip, width, height);
+            long elapsed = System.nanoTime() - t0;
+            for (int l=0; l<frameLayers.length; l++) {
+                Layer layer = frameLayers[l];
+                renderStats.recordLayer(l, (l == 0) ? elapsed : 0L, layer.shapesDrawn, layer.shapesCulled);
+            }
+        } else {
+            for (int l=0; l<frameLayers.length; l++) {
+                Layer layer = frameLayers[l];
+                t0 = System.nanoTime();
+                layer.draw(g2, clip, width, height);
+                renderStats.recordLayer(l, System.nanoTime() - t0, layer.shapesDrawn, layer.shapesCulled);
+            }
+        }
+        
+        // Draw hit-image to main pad canvas for debugging
+        //g2.drawImage(hitImg, 0, 0, null);
+        
+        // The hit-detection image for this region is now stale. 
+        // It is redrawn only when a mouse event needs it.
+        if (hitTestMode == HitTestMode.IMAGE) {
+            hitDirty = (hitDirty == null) ? new java.awt.Rectangle(clip) : hitDirty.union(clip);
+            hitPaintsPending++;
+        }
+        
+        renderStats.endFrame();
+    }
+    
+    /**
+     * Return timings and counters of recently rendered frames,
+     * including the time to clear the background, draw each Layer, redraw the hit-detection image 
+     * and dispatch events, and the number of Shapes drawn and culled.
+     * Each frame is also emitted as a doodlepad.RenderFrame event when JDK Flight Recorder is recording.
+     * @return The RenderStats of this Pad
+     */
+    public RenderStats getRenderStats() {
+        return renderStats;
+    }
+    
+    /**
+     * The Shapes taking part in a mouse drag and their offsets from the mouse at the start of the drag.
+     * Only Shapes that are selected when the mouse is pressed take part, and only draggable ones are moved,
+     * so starting, moving and ending a drag costs time proportional to the selection rather than the scene.
+     */
+    private static final class DragSession
+    {
+        private final Shape[] shapes;
+        private final double[] offsetX;
+        private final double[] offsetY;
+        
+        /**
+         * Start a drag of the selected Shapes on all Layers
+         * @param layers    The Layers of the Pad
+         * @param x         x-coordinate of the mouse in Pad coordinates
+         * @param y         y-coordinate of the mouse in Pad coordinates
+         */
+        DragSession(List<Layer> layers, double x, double y) {
+            List<Shape> found = new ArrayList<>();
+            for (int l=0; l<layers.size(); l++) {
+                found.addAll(layers.get(l).getSelectedShapes());
+            }
+            shapes = found.toArray(new Shape[found.size()]);
+            offsetX = new double[shapes.length];
+            offsetY = new double[shapes.length];
+            
+            // Save the offset of each Shape from the mouse in its own coordinate system
+            for (int i=0; i<shapes.length; i++) {
+                Shape s = shapes[i];
+                Point2D.Double pt = s.toShapeCoords(x, y);
+                offsetX[i] = s.x - pt.x;
+                offsetY[i] = s.y - pt.y;
+            }
+        }
+        
+        /**
+         * Move each Shape still selected and draggable so it keeps its offset from the mouse
+         * @param x x-coordinate of the mouse in Pad coordinates
+         * @param y y-coordinate of the mouse in Pad coordinates
+         */
+        void drag(double x, double y) {
+            for (int i=0; i<shapes.length; i++) {
+                Shape s = shapes[i];
+                if (s.layer == null || !s.selected || !s.draggable) continue;
+                Point2D.Double pt = s.toShapeCoords(x, y);
+                s.setLocation(pt.x + offsetX[i], pt.y + offsetY[i]);
+            }
+        }
+        
+        /**
+         * Raise mouseDragged on each Shape still selected, whether or not it is draggable.
+         * Iterates the Shapes held by the session, so a drag event copies no selection.
+         * @param x         x-coordinate of the mouse in Pad coordinates
+         * @param y         y-coordinate of the mouse in Pad coordinates
+         * @param button    The mouse button
+         */
+        void mouseDragged(double x, double y, int button) {
+            for (Shape s : shapes) {
+                if (s.layer != null && s.selected) s.shapeListener.mouseDragged(x, y, button);
+            }
+        }
+        
+        /**
+         * End the drag
+         */
+        void end() {
+            for (Shape s : shapes) s.stopDrag();
+        }
+    }
+    
+    /**
+     * Inner class that times the dispatch of mouse and key events for RenderStats
+     * and delegates to the listeners that handle them
+     */
+    private class TimedEventListener implements MouseListener, MouseMotionListener, KeyListener
+    {
+        @Override public void mousePressed(MouseEvent e)  { dispatch(e); }
+        @Override public void mouseReleased(MouseEvent e) { dispatch(e); }
+        @Override public void mouseClicked(MouseEvent e)  { dispatch(e); }
+        @Override public void mouseEntered(MouseEvent e)  { dispatch(e); }
+        @Override public void mouseExited(MouseEvent e)   { dispatch(e); }
+        @Override public void mouseMoved(MouseEvent e)    { dispatch(e); }
+        @Override public void mouseDragged(MouseEvent e)  { dispatch(e); }
+        @Override public void keyPressed(KeyEvent e)      { dispatch(e); }
+        @Override public void keyReleased(KeyEvent e)     { dispatch(e); }
+        @Override public void keyTyped(KeyEvent e)        { dispatch(e); }
+        
+        /**
+         * Deliver an event to the listener method for its type and charge the time to the next frame
+         */
+        private void dispatch(InputEvent e) {
+            long t0 = System.nanoTime();
+            switch (e.getID()) {
+                case MouseEvent.MOUSE_PRESSED:  mouseListener.mousePressed((MouseEvent)e); break;
+                case MouseEvent.MOUSE_RELEASED: mouseListener.mouseReleased((MouseEvent)e); break;
+                case MouseEvent.MOUSE_CLICKED:  mouseListener.mouseClicked((MouseEvent)e); break;
+                case MouseEvent.MOUSE_ENTERED:  mouseListener.mouseEntered((MouseEvent)e); break;
+                case MouseEvent.MOUSE_EXITED:   mouseListener.mouseExited((MouseEvent)e); break;
+                case MouseEvent.MOUSE_MOVED:    mouseMotionListener.mouseMoved((MouseEvent)e); break;
+                case MouseEvent.MOUSE_DRAGGED:  mouseMotionListener.mouseDragged((MouseEvent)e); break;
+                case KeyEvent.KEY_PRESSED:      keyListener.keyPressed((KeyEvent)e); break;
+                case KeyEvent.KEY_RELEASED:     keyListener.keyReleased((KeyEvent)e); break;
+                case KeyEvent.KEY_TYPED:        keyListener.keyTyped((KeyEvent)e); break;
+                default: return;
+            }
+            renderStats.addEventNanos(System.nanoTime() - t0);
+        }
+    }
+    
+    private final TimedEventListener timedListener = new TimedEventListener();
+    
     /**
      * Inner class to handle component listener events
      */
@@ -391,6 +666,7 @@ public class Pad extends JFrame implements Iterable<Shape>
             //System.out.println(e.getComponent().getClass().getName() + " --- Resized");
             // Create a new buffered image used for hit detection when the window size changes
             hitImg = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB);
+            hitDirty = new java.awt.Rectangle(0, 0, hitImg.getWidth(), hitImg.getHeight());
             repaint();
         }
 
@@ -440,19 +716,11 @@ public class Pad extends JFrame implements Iterable<Shape>
                 // If the shift key is not down and the shape is not selected, deselect all.
                 if (!e.isShiftDown() && !s.getShape().getSelected()) deselectAll();
                 
+                // Delegate the mousePressed event, which selects the Shape
+                s.mousePressed(eX, eY, eBut);
+                
                 // Start the dragging process for all eligable Shapes
-                dragging = true;
-                for (int l=0; l<layers.size(); l++) {
-                    Layer lay = layers.get(l);
-                    ArrayList<Shape> shapes = lay.getShapes();
-                    
-                    for (int i=0; i<shapes.size(); i++) {
-                        shapes.get(i).startDrag(eX, eY);
-                    }
-
-                    // Delegate the mousePressed event
-                    s.mousePressed(eX, eY, eBut);
-                }
+                dragSession = new DragSession(layers, eX, eY);
 
             } else {
                 // If the shift key is not down, deselect all.
@@ -493,14 +761,9 @@ public class Pad extends JFrame implements Iterable<Shape>
             int eBut = e.getButton();
 
             // Stop dragging
-            dragging = false;
-            for (int l=0; l<layers.size(); l++) {
-                Layer lay = layers.get(l);
-                ArrayList<Shape> shapes = lay.getShapes();
-                
-                for (int i=0; i<shapes.size(); i++) {
-                    shapes.get(i).stopDrag();
-                }
+            if (dragSession != null) {
+                dragSession.end();
+                dragSession = null;
             }
             
             // If a Shape is under the mouse, invoke it's ShapeMouseListener.mouseReleased methods
@@ -640,6 +903,11 @@ public class Pad extends JFrame implements Iterable<Shape>
         //private ShapeMouseListener lastListener = null;
         WeakReference<ShapeMouseListener> lastListener = new WeakReference<>(null);
         
+        // The event point and the result of inverse transforms, reused so that moving
+        // the mouse allocates nothing. Mouse events are only delivered on the event dispatch thread.
+        private final Point2D.Double eventPt = new Point2D.Double();
+        private final Point2D.Double scratch = new Point2D.Double();
+        
         /**
          * Handle mouseMoved event
          * @param e The MouseEvent object that describes the mouse event.
@@ -649,7 +917,8 @@ public class Pad extends JFrame implements Iterable<Shape>
         {
             // Get the event point 
             // and perform inverse transforms for the Pad coodinate system
-            java.awt.Point pt = e.getPoint();
+            Point2D.Double pt = eventPt;
+            pt.setLocation(e.getX(), e.getY());
             double eX = pt.getX();
             double eY = pt.getY();
             int eBut = e.getButton();
@@ -669,7 +938,7 @@ public class Pad extends JFrame implements Iterable<Shape>
             if (s == null && ll != s) {
                 try {
                     Layer lay = layers.get(0);          // Default Layer
-                    Point2D.Double pt2 = new Point2D.Double();
+                    Point2D.Double pt2 = scratch;
                     lay.transform.inverseTransform(pt, pt2);
 
                     eX = pt.getX();
@@ -696,7 +965,7 @@ public class Pad extends JFrame implements Iterable<Shape>
             if (s != null && ll == null) {
                 try {
                     Layer lay = layers.get(0);          // Default Layer
-                    Point2D.Double pt2 = new Point2D.Double();
+                    Point2D.Double pt2 = scratch;
                     lay.transform.inverseTransform(pt, pt2);
 
                     eX = pt.getX();
@@ -723,7 +992,7 @@ public class Pad extends JFrame implements Iterable<Shape>
             
                 try {
                     Layer lay = layers.get(0);          // Default layer
-                    Point2D.Double pt1 = new Point2D.Double();
+                    Point2D.Double pt1 = scratch;
                     lay.transform.inverseTransform(pt, pt1);
                     
                     double eX2 = pt1.getX();
@@ -739,8 +1008,8 @@ public class Pad extends JFrame implements Iterable<Shape>
                 }
             }
 
-            // Reset last listener
-            lastListener = new WeakReference<>(s);
+            // Reset last listener, only allocating a new reference when it changes
+            if (ll != s) lastListener = new WeakReference<>(s);
         }
 
         /**
@@ -752,22 +1021,17 @@ public class Pad extends JFrame implements Iterable<Shape>
         {
             // Get the event point 
             // and perform inverse transforms for the Pad coodinate system
-            java.awt.Point pt = e.getPoint();
+            Point2D.Double pt = eventPt;
+            pt.setLocation(e.getX(), e.getY());
             double eX = pt.getX();
             double eY = pt.getY();
             int eBut = e.getButton();
 
             // If dragging, move all selected shapes.
             // This also delegates the mouseDragged events
-            if (dragging) {
-                for (int l=0; l<layers.size(); l++) {
-                    Layer lay = layers.get(l);
-                    ArrayList<Shape> shapes = lay.getSelectedShapes();
-                    for (Shape shape : shapes) {
-                        shape.doDrag(eX, eY);
-                        shape.shapeListener.mouseDragged(eX, eY, eBut);
-                    }
-                }
+            if (dragSession != null) {
+                dragSession.drag(eX, eY);
+                dragSession.mouseDragged(eX, eY, eBut);
             }
 
             // Note that dragging is handled outside of the Shape’s mouseDragged event.
@@ -800,7 +1064,7 @@ public class Pad extends JFrame implements Iterable<Shape>
             if (s == null && ll != s) {
                 try {
                     Layer lay = layers.get(0);      // Default Layer
-                    Point2D.Double pt2 = new Point2D.Double();
+                    Point2D.Double pt2 = scratch;
                     lay.transform.inverseTransform(pt, pt2);
 
                     eX = pt.getX();
@@ -827,7 +1091,7 @@ public class Pad extends JFrame implements Iterable<Shape>
             if (s != null && ll == null) {
                 try {
                     Layer lay = layers.get(0);      // Default Layer
-                    Point2D.Double pt2 = new Point2D.Double();
+                    Point2D.Double pt2 = scratch;
                     lay.transform.inverseTransform(pt, pt2);
 
                     eX = pt.getX();
@@ -843,8 +1107,8 @@ public class Pad extends JFrame implements Iterable<Shape>
                 }
             }
 
-            // Reset last listener
-            lastListener = new WeakReference<>(s);
+            // Reset last listener, only allocating a new reference when it changes
+            if (ll != s) lastListener = new WeakReference<>(s);
         }
     };
     
@@ -858,17 +1122,23 @@ public class Pad extends JFrame implements Iterable<Shape>
          */
         @Override
         public void actionPerformed(ActionEvent e) {
-            long when = e.getWhen();
-            
-            // Delegate to any subclass overriding methods
-            onTick(when);
-            
-            // Delegate to any registered PadTickListeners
-            for (PadTickListener s : tickListeners) {
-                s.onTick(when);
-            }
+            fireTick(e.getWhen());
         }
     };
+    
+    /**
+     * Raise the tick event on the Pad and all registered PadTickListeners
+     * @param when The time of the tick in milliseconds
+     */
+    private void fireTick(long when) {
+        // Delegate to any subclass overriding methods
+        onTick(when);
+        
+        // Delegate to any registered PadTickListeners
+        for (PadTickListener s : tickListeners) {
+            s.onTick(when);
+        }
+    }
 
     /**
      * All event type constants
@@ -878,6 +1148,65 @@ public class Pad extends JFrame implements Iterable<Shape>
         ClientOpened, ClientClosed, ClientReceived, ClientInfo, ClientError
     }
     
+    /**
+     * What happens when a message is sent on a connection whose outbound queue is full
+     */
+    public enum SendPolicy {
+        /** Discard the oldest messages that have not started to be written, to make room */
+        DROP_OLDEST,
+        /** 
+         * Wait until the connection has written enough to make room. A message sent on the 
+         * event dispatch thread, which must never wait, is queued without waiting.
+         * If the sending thread is interrupted while waiting, the message is dropped and reported
+         * as a client error, and the connection stays open.
+         */
+        BLOCK,
+        /** Discard the message and close the connection */
+        DISCONNECT
+    }
+    
+    /**
+     * An open network connection, either served by its own thread or by a non-blocking server
+     */
+    interface Connection {
+        /**
+         * Queue a message to be sent to the connected socket
+         * @param msg The message to send.
+         */
+        void send(String msg);
+        
+        /**
+         * Queue a message that is already encoded as a line, such as a buffer shared by a broadcast
+         * @param line  The encoded line. Its remaining bytes are sent and its position advances as they are.
+         */
+        void sendEncoded(ByteBuffer line);
+        
+        /**
+         * Close the connected socket
+         */
+        void close();
+        
+        /**
+         * Return the queue of messages waiting to be written
+         */
+        OutboundQueue outbound();
+    }
+    
+    /**
+     * A socket event waiting to be delivered on the event dispatch thread
+     */
+    private static final class SocketEvent {
+        final SocketEventType typ;
+        final int id;
+        final String msg;
+        
+        SocketEvent(SocketEventType typ, int id, String msg) {
+            this.typ = typ;
+            this.id = id;
+            this.msg = msg;
+        }
+    }
+    
     // - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
     
     /**
@@ -945,8 +1274,7 @@ public class Pad extends JFrame implements Iterable<Shape>
                     ClientConnection ch = new ClientConnection( socket.accept(), id );
                     
                     // Handle the new connection on its own thread
-                    Thread worker = new Thread( ch );
-                    worker.start();
+                    startNetworkThread( ch );
 
                     // Track the connection in the internal concurrent HashMap
                     clientConnections.put(id, ch);
@@ -992,13 +1320,15 @@ public class Pad extends JFrame implements Iterable<Shape>
     /**
      * Inner class that manages client socket connections.
      */
-    private class ClientConnection implements Runnable
+    private class ClientConnection implements Runnable, Connection
     {
         private final Socket socket;                        // Client socket
         private BufferedReader in = null;                   // In and out streams
-        private PrintWriter out = null;
+        private OutputStream out = null;
         private volatile boolean continueRunning = false;   // Internal flag to manage client reading loop
         private final int id;                               // Unique id for this client
+        private final OutboundQueue outbound = newOutboundQueue();          // Messages waiting to be written
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();   // Flag that a write of the queue is scheduled
 
         /**
          * Constructor for object that manages client socket connection
@@ -1013,7 +1343,7 @@ public class Pad extends JFrame implements Iterable<Shape>
             // Try to get the input and output streams for reading and writing the socket
             try {
                 in = new BufferedReader(new InputStreamReader( socket.getInputStream() ));
-                out = new PrintWriter(socket.getOutputStream(), true);
+                out = socket.getOutputStream();
             } catch (IOException ex) {
                 invokeOnDispatch(SocketEventType.ClientError, id, "In or out buffer creation failed: " + ex);
             }
@@ -1042,12 +1372,13 @@ public class Pad extends JFrame implements Iterable<Shape>
                     invokeOnDispatch(SocketEventType.ClientReceived, id, msg);
                     
                 } catch (IOException e) {
-                    // Connection was closed
-                    break;
+                    // Connection was closed or failed, so nothing more can be sent
+                    closeNow();
+                    return;
                 }
             }
             
-            // Close local connection
+            // Close local connection after sending anything still queued
             close();
         }
         
@@ -1055,7 +1386,18 @@ public class Pad extends JFrame implements Iterable<Shape>
          * Send a message to the connected socket
          * @param msg The message to send.
          */
+        @Override
         public void send(String msg) 
+        {
+            sendEncoded(OutboundQueue.encodeLine(msg));
+        }
+        
+        /**
+         * Queue an encoded line to be written to the connected socket
+         * @param line The encoded line
+         */
+        @Override
+        public void sendEncoded(ByteBuffer line)
         {
             // Notify if there is no connected socket
             if (socket == null) {
@@ -1075,23 +1417,95 @@ public class Pad extends JFrame implements Iterable<Shape>
                 return;
             }
             
-            // Write the message and flush the buffer
+            // Queue the message and have it written off the calling thread.
+            // The event dispatch thread never waits for room, even under the BLOCK policy.
+            if (!outbound.offer(line, !SwingUtilities.isEventDispatchThread())) {
+                if (outbound.isShutdown()) {
+                    invokeOnDispatch(SocketEventType.ClientError, id, "Cannot send. Socket is closing.");
+                } else if (outbound.getPolicy() == SendPolicy.BLOCK) {
+                    // BLOCK only refuses a message when the sender is interrupted while waiting for room
+                    invokeOnDispatch(SocketEventType.ClientError, id, "Send interrupted. Message dropped.");
+                } else {
+                    invokeOnDispatch(SocketEventType.ClientError, id, "Send queue full. Closing connection.");
+                    closeNow();
+                }
+                return;
+            }
+            if (writeScheduled.compareAndSet(false, true)) {
+                sendExecutor().execute(this::writeQueue);
+            }
+        }
+        
+        /**
+         * Write queued messages until the queue is empty. Runs on a send thread.
+         * Messages queued while a write is underway are written by the same task, in as few writes as possible.
+         * If the connection is closing, close the socket once everything has been written.
+         */
+        private void writeQueue()
+        {
             try {
-                out.println(msg);
-                out.flush();
-            } catch (Exception ex) {
-                invokeOnDispatch(SocketEventType.ClientError, id, "Problem sending message: " + ex);
+                do {
+                    outbound.writeTo(out);
+                    writeScheduled.set(false);
+                    
+                    // Continue if more arrived after the last write and no other task was scheduled for them
+                } while (!outbound.isEmpty() && writeScheduled.compareAndSet(false, true));
+            } catch (IOException ex) {
+                writeScheduled.set(false);
+                if (!socket.isClosed()) {
+                    invokeOnDispatch(SocketEventType.ClientError, id, "Problem sending message: " + ex);
+                    closeNow();
+                }
+                return;
             }
+            
+            // A closing queue accepts nothing new, so once it is empty it stays empty
+            if (outbound.isShutdown() && outbound.isEmpty()) closeSocket();
         }
         
         /**
-         * Close the connected socket
+         * Return the queue of messages waiting to be written
+         */
+        @Override
+        public OutboundQueue outbound() {
+            return outbound;
+        }
+        
+        /**
+         * Close the connected socket once all queued messages have been written.
+         * Messages sent after this call are refused.
          */
+        @Override
         public void close()
         {
             // Set the flag to false to stop the read loop
             setContinueRunning(false);
             
+            // Refuse new messages and release any blocked senders
+            outbound.shutdown();
+            
+            // Have a send thread finish the queue and then close the socket.
+            // If a write is already scheduled, it closes the socket when done.
+            if (writeScheduled.compareAndSet(false, true)) {
+                sendExecutor().execute(this::writeQueue);
+            }
+        }
+        
+        /**
+         * Close the connected socket immediately, discarding unsent messages. Used after an error.
+         */
+        private void closeNow()
+        {
+            setContinueRunning(false);
+            outbound.close();
+            closeSocket();
+        }
+        
+        /**
+         * Close the socket and notify. Only the first call has any effect.
+         */
+        private synchronized void closeSocket()
+        {
             // If no socket or already closed then nothing more to do
             if (socket == null) return;
             if (socket.isClosed()) return;
@@ -1122,23 +1536,67 @@ public class Pad extends JFrame implements Iterable<Shape>
         }
     }
     
-    /**
-     * Get or create the Pad singleton object
-     * @return The Pad singleton object
-     */
-    private static volatile Pad padSingleton = null;
+    // - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
     
     /**
-     * A static method that creates a new Pad singleton object or returns the current Pad singleton object.
-     * Ensures that only one singleton is created by synchronizing execution.
-     * @return The current Pad singleton object
+     * Inner class that raises the events of a non-blocking server on the dispatch thread
      */
-    public static Pad getPad()
+    private class NioEvents implements NioServer.Handler
     {
-        if (padSingleton == null) {
-            synchronized(Pad.class) {
-                if (padSingleton == null) {
-                    padSingleton = new Pad("DoodlePad", 600, 600, Color.WHITE);
+        @Override
+        public void opened(int id, Connection connection) {
+            clientConnections.put(id, connection);
+            invokeOnDispatch(SocketEventType.ClientOpened, id);
+        }
+        
+        @Override
+        public void received(int id, String msg) {
+            invokeOnDispatch(SocketEventType.ClientReceived, id, msg);
+        }
+        
+        @Override
+        public void closed(int id) {
+            invokeOnDispatch(SocketEventType.ClientClosed, id);
+        }
+        
+        @Override
+        public void error(int id, String msg) {
+            invokeOnDispatch(SocketEventType.ClientError, id, msg);
+        }
+        
+        @Override
+        public void serverInfo(String msg) {
+            invokeOnDispatch(SocketEventType.ServerInfo, msg);
+        }
+        
+        @Override
+        public void serverStopped() {
+            invokeOnDispatch(SocketEventType.ServerStopped);
+        }
+        
+        @Override
+        public OutboundQueue createQueue() {
+            return newOutboundQueue();
+        }
+    }
+    
+    /**
+     * Get or create the Pad singleton object
+     * @return The Pad singleton object
+     */
+    private static volatile Pad padSingleton = null;
+    
+    /**
+     * A static method that creates a new Pad singleton object or returns the current Pad singleton object.
+     * Ensures that only one singleton is created by synchronizing execution.
+     * @return The current Pad singleton object
+     */
+    public static Pad getPad()
+    {
+        if (padSingleton == null) {
+            synchronized(Pad.class) {
+                if (padSingleton == null) {
+                    padSingleton = new Pad("DoodlePad", 600, 600, Color.WHITE);
                 }
             }
         }
@@ -1163,6 +1621,19 @@ public class Pad extends JFrame implements Iterable<Shape>
         return layers.size() - 1;
     }
     
+    /**
+     * Add a Layer created for this Pad, such as a ParticleLayer, above all existing Layers
+     * @param layer The Layer to add, which must have been constructed with this Pad
+     * @return idx The new Layer`s index
+     */
+    public int addLayer(Layer layer) {
+        if (layer.getPad() != this) throw new IllegalArgumentException("Layer was not created for this Pad");
+        if (layers.contains(layer)) return layers.indexOf(layer);
+        layers.add(layer);
+        layer.repaint();
+        return layers.size() - 1;
+    }
+    
     /**
      * Remove a Layer given the layer index.
      * Do nothing when index of Layer is 0, the default Layer
@@ -1171,7 +1642,11 @@ public class Pad extends JFrame implements Iterable<Shape>
     public void removeLayer(int idx) {
         if (idx == 0) return;
         try {
-            layers.remove(idx); //.clearPad();
+            Layer layer = layers.remove(idx); //.clearPad();
+            
+            // Recycle the hit keys of Shapes that are no longer on the Pad
+            List<Shape> shapes = layer.shapeList();
+            for (int i=0; i<shapes.size(); i++) releaseHitKey(shapes.get(i));
         } catch (Exception ex) {
             // ignore errors
         }
@@ -1261,18 +1736,18 @@ public class Pad extends JFrame implements Iterable<Shape>
         //this.transform = new AffineTransform();
         
         // Create the layers List with two default Layers
-        layers = new ArrayList<>();
+        layers = new CopyOnWriteArrayList<>();
         layers.add(new Layer(this));        // Shapes Layer
         
         // For hit detection. Use an image with alpha for maximum range of values.
         hitImg = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        hitHash = new HashMap<>();
         
         // Set up event handler inner class objects
-        cvs.addMouseListener(mouseListener);
-        cvs.addMouseMotionListener(mouseMotionListener);
+        surface = cvs;
+        cvs.addMouseListener(timedListener);
+        cvs.addMouseMotionListener(timedListener);
         addComponentListener(componentListener);
-        addKeyListener(keyListener);
+        addKeyListener(timedListener);
         eventsEnabled = true;
         
         setDefaultCloseOperation (EXIT_ON_CLOSE);
@@ -1307,6 +1782,7 @@ public class Pad extends JFrame implements Iterable<Shape>
     protected void finalize() throws Throwable {
         try {
             stopTimer();                // Stop timer, in case it is running
+            if (activeRenderer != null) activeRenderer.stop();
             closeAllConnections();      // Close all client socket connections, if any
             stopListening();            // Close listening socket and terminate listening loop 
         } finally {
@@ -1319,7 +1795,7 @@ public class Pad extends JFrame implements Iterable<Shape>
      * @return Width of the drawing area
      */
     public int getPadWidth() {
-        return cvs.getWidth();
+        return surface.getWidth();
     }
     
     /**
@@ -1327,7 +1803,7 @@ public class Pad extends JFrame implements Iterable<Shape>
      * @return Height of the drawing area
      */
     public int getPadHeight() {
-        return cvs.getHeight();
+        return surface.getHeight();
     }
     
     /**
@@ -1379,8 +1855,7 @@ public class Pad extends JFrame implements Iterable<Shape>
         ArrayList<Shape> allShapes = new ArrayList<>();
         for (int l=0; l<layers.size(); l++) {
             Layer ll = layers.get(l);
-            ArrayList<Shape> ss = ll.getShapes();
-            allShapes.addAll( ss );
+            allShapes.addAll( ll.shapeList() );
         }
         return allShapes;
         //return (ArrayList<Shape>)this.shapes;
@@ -1402,9 +1877,164 @@ public class Pad extends JFrame implements Iterable<Shape>
      */
     @Override
     public void repaint() {
-        if (immediateMode == true) {
-            cvs.repaint();
+        // The active render loop redraws every frame
+        if (immediateMode == true && activeRenderer == null) {
+            if (batchDepth.get() > 0) {
+                batchFullRepaint = true;
+            } else {
+                cvs.repaint();
+            }
+        }
+    }
+    
+    /**
+     * Repaint only the regions covered by a changed Shape, where it was last painted and
+     * where it is now. Regions are collected and flushed once on the event dispatch thread.
+     * @param s The Shape that changed
+     */
+    void repaint(Shape s) {
+        if (immediateMode == false || activeRenderer != null) return;
+        
+        dirtyShapes.add(s);
+        if (batchDepth.get() > 0) return;
+        if (dirtyFlushPending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::flushDirtyShapes);
+        }
+    }
+    
+    /**
+     * A scope in which changes to Shapes on a Pad are collected and repainted together when it closes.
+     * Batches nest. Changes are repainted when the outermost open batch closes.
+     * Use with try-with-resources:
+     * <pre>
+     * try (Pad.Batch b = pad.batch()) {
+     *     for (Shape s : shapes) s.setFillColor(c);
+     * }
+     * </pre>
+     */
+    public final class Batch implements AutoCloseable
+    {
+        private boolean closed = false;
+        
+        private Batch() {
+            batchDepth.incrementAndGet();
+        }
+        
+        /**
+         * Close the batch. When no other batch remains open, all collected changes are repainted at once.
+         * Closing a batch more than once has no further effect.
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+            }
+            if (batchDepth.decrementAndGet() == 0) endBatch();
+        }
+    }
+    
+    /**
+     * Open a batch of updates. Until the batch is closed, Shape changes do not repaint the Pad
+     * one at a time, but are collected and repainted together in a single pass.
+     * The spatial index and hit-detection image are already brought up to date lazily, 
+     * so they are updated once on first use after the batch closes.
+     * Batches may be opened from any thread and may be nested. While any batch is open, 
+     * changes made from every thread are collected.
+     * @return The open Batch, to be closed with close() or try-with-resources
+     */
+    public Batch batch() {
+        return new Batch();
+    }
+    
+    /**
+     * Repaint everything collected while batches were open
+     */
+    private void endBatch() {
+        if (batchFullRepaint) {
+            batchFullRepaint = false;
+            
+            // A full repaint covers the regions of all dirty Shapes. 
+            // Forget where hidden and removed Shapes were painted, as a flush would.
+            Iterator<Shape> it = dirtyShapes.iterator();
+            while (it.hasNext()) {
+                Shape s = it.next();
+                it.remove();
+                if (s.layer == null || !s.visible) s.paintedBounds = null;
+            }
+            repaint();
+        } else if (!dirtyShapes.isEmpty() && dirtyFlushPending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::flushDirtyShapes);
+        }
+    }
+    
+    /**
+     * Union the old and new device bounds of all dirty Shapes into a small number
+     * of regions and request a repaint of each. Swing's RepaintManager coalesces
+     * the requests, so the scene is rendered once, clipped to the regions.
+     */
+    private void flushDirtyShapes() {
+        dirtyFlushPending.set(false);
+        
+        List<java.awt.Rectangle> regions = new ArrayList<>();
+        java.awt.Rectangle all = null;
+        Iterator<Shape> it = dirtyShapes.iterator();
+        while (it.hasNext()) {
+            Shape s = it.next();
+            it.remove();
+            
+            // Where the Shape was last painted
+            Rectangle2D.Double r = s.paintedBounds;
+            
+            // Where the Shape will be painted now
+            if (s.layer != null && s.visible) {
+                Rectangle2D.Double b = s.getDeviceBounds();
+                if (r == null) r = b; else r = (Rectangle2D.Double)r.createUnion(b);
+            } else {
+                s.paintedBounds = null;
+            }
+            
+            if (r == null) continue;
+            
+            // With too many separate regions, a single paint is cheaper. Once the list
+            // overflows, stop merging and grow one region around everything that remains.
+            if (all != null) {
+                java.awt.Rectangle d = r.getBounds();
+                d.grow(1, 1);
+                all.add(d);
+            } else {
+                addDirtyRegion(regions, r.getBounds());
+                if (regions.size() > MAX_DIRTY_REGIONS) {
+                    all = regions.get(0);
+                    for (java.awt.Rectangle g : regions) all.add(g);
+                    regions.clear();
+                }
+            }
+        }
+        if (all != null) regions.add(all);
+        
+        for (java.awt.Rectangle r : regions) {
+            cvs.repaint(r);
+        }
+    }
+    
+    /**
+     * Add a rectangle to a list of dirty regions, merging it with any regions it overlaps
+     */
+    private void addDirtyRegion(List<java.awt.Rectangle> regions, java.awt.Rectangle r) {
+        r.grow(1, 1);
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i=0; i<regions.size(); i++) {
+                if (regions.get(i).intersects(r)) {
+                    r = r.union(regions.remove(i));
+                    merged = true;
+                    break;
+                }
+            }
         }
+        regions.add(r);
     }
     
     /**
@@ -1458,16 +2088,16 @@ public class Pad extends JFrame implements Iterable<Shape>
     public void setEventsEnabled( boolean enabled )
     {
         if (enabled == false && eventsEnabled == true) {
-            cvs.removeMouseListener(mouseListener);
-            cvs.removeMouseMotionListener(mouseMotionListener);
+            surface.removeMouseListener(timedListener);
+            surface.removeMouseMotionListener(timedListener);
             removeComponentListener(componentListener);
-            removeKeyListener(keyListener);
+            removeKeyListener(timedListener);
             eventsEnabled = false;
         } else if (enabled == true && eventsEnabled == false) {
-            cvs.addMouseListener(mouseListener);
-            cvs.addMouseMotionListener(mouseMotionListener);
+            surface.addMouseListener(timedListener);
+            surface.addMouseMotionListener(timedListener);
             addComponentListener(componentListener);
-            addKeyListener(keyListener);
+            addKeyListener(timedListener);
             eventsEnabled = true;
         }
     }
@@ -1489,6 +2119,215 @@ public class Pad extends JFrame implements Iterable<Shape>
         return immediateMode;
     }
     
+    /**
+     * Set the strategy used to determine which Shape is under the mouse.
+     * HitTestMode.GEOMETRIC never draws the hit-detection image
+     * and instead tests Shape geometry when a mouse event arrives.
+     * @param mode The new HitTestMode
+     */
+    public void setHitTestMode(HitTestMode mode) {
+        if (mode == null || mode == hitTestMode) return;
+        hitTestMode = mode;
+        
+        // The hit image is out of date when switching back to it
+        redraw();
+    }
+    
+    /**
+     * Return the strategy used to determine which Shape is under the mouse
+     * @return The current HitTestMode
+     */
+    public HitTestMode getHitTestMode() {
+        return hitTestMode;
+    }
+    
+    /**
+     * Turn active rendering on or off, rendering at the current tick rate.
+     * @param active true to turn on active rendering
+     * @see #setActiveRendering(boolean, double)
+     */
+    public void setActiveRendering(boolean active) {
+        setActiveRendering(active, tickRate);
+    }
+    
+    /**
+     * Turn active rendering on or off. 
+     * In active rendering mode a dedicated thread paces frames at a steady rate 
+     * and draws each frame to a page-flipped BufferStrategy instead of waiting for Swing to repaint.
+     * Ticks are raised at the fixed tick rate, independent of the frame rate. 
+     * Each frame runs as many ticks as are due, then renders once. 
+     * The fraction of a tick that had elapsed at render time is available from getInterpolation().
+     * Ticks are raised only while the timer is started.
+     * @param active    true to turn on active rendering
+     * @param fps       Target frames per second
+     */
+    public void setActiveRendering(boolean active, double fps) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            Util.invokeAndWait(() -> setActiveRendering(active, fps));
+            return;
+        }
+        if (fps <= 0.0) {
+            throw new IllegalArgumentException("frame rate cannot be less than or equal to 0");
+        }
+        
+        // Keep the timer's started state across the switch
+        boolean ticking = isRunning();
+        
+        if (activeRenderer != null) {
+            // Stop the current loop and go back to the Swing panel
+            activeRenderer.stop();
+            activeRenderer = null;
+            activeTicking = false;
+            swapSurface(cvs);
+            activeCanvas = null;
+        }
+        
+        if (active) {
+            if (timer != null) timer.stop();
+            
+            activeCanvas = new java.awt.Canvas();
+            activeCanvas.setIgnoreRepaint(true);
+            activeCanvas.setFocusable(false);       // Leave key events with the Pad
+            activeCanvas.setPreferredSize(cvs.getSize());
+            activeCanvas.setBackground(background);
+            swapSurface(activeCanvas);
+            activeCanvas.createBufferStrategy(2);
+            
+            activeTicking = ticking;
+            activeRenderer = new ActiveRenderer(this, fps);
+            activeRenderer.start();
+        } else {
+            if (ticking) startTimer();
+            redraw();
+        }
+    }
+    
+    /**
+     * Turn parallel tiled rendering on or off. When on, each repaint splits the drawing surface into 
+     * square tiles that are rendered in parallel on the common ForkJoinPool and then composited.
+     * This speeds up painting of large Pads with many Shapes on machines with several cores.
+     * @param tiled true to render in parallel tiles
+     */
+    public void setTiledRendering(boolean tiled) {
+        setTiledRendering(tiled, TileRenderer.DEFAULT_TILE_SIZE);
+    }
+    
+    /**
+     * Turn parallel tiled rendering on or off, with a given tile size
+     * @param tiled     true to render in parallel tiles
+     * @param tileSize  Width and height of each tile in pixels
+     */
+    public void setTiledRendering(boolean tiled, int tileSize) {
+        tileRenderer = tiled ? new TileRenderer(tileSize, ForkJoinPool.commonPool()) : null;
+        repaint();
+    }
+    
+    /**
+     * Return whether parallel tiled rendering is on
+     * @return true if rendering in parallel tiles
+     */
+    public boolean isTiledRendering() {
+        return tileRenderer != null;
+    }
+    
+    /**
+     * Return true if active rendering is on
+     * @return Active rendering state
+     */
+    public boolean isActiveRendering() {
+        return activeRenderer != null;
+    }
+    
+    /**
+     * Return the average frames per second over recent frames in active rendering mode
+     * @return Frames per second, or 0 when active rendering is off
+     */
+    public double getFps() {
+        ActiveRenderer r = activeRenderer;
+        return (r == null) ? 0.0 : r.getFps();
+    }
+    
+    /**
+     * Return a percentile of the time between recent frames in active rendering mode.
+     * For example, getFrameTimePercentile(99) is the 99th percentile frame time.
+     * @param percentile The percentile in the range [0, 100]
+     * @return Frame time in milliseconds, or 0 when active rendering is off
+     */
+    public double getFrameTimePercentile(double percentile) {
+        ActiveRenderer r = activeRenderer;
+        return (r == null) ? 0.0 : r.getFrameTimePercentile(percentile);
+    }
+    
+    /**
+     * Return the number of frames that were late by more than half a frame in active rendering mode
+     * @return Number of dropped frames, or 0 when active rendering is off
+     */
+    public long getDroppedFrames() {
+        ActiveRenderer r = activeRenderer;
+        return (r == null) ? 0 : r.getDroppedFrames();
+    }
+    
+    /**
+     * Return the fraction of a tick that had elapsed when the current frame was rendered.
+     * Drawing code may use this to interpolate between the last two tick states.
+     * @return Interpolation factor in the range [0, 1), or 0 when active rendering is off
+     */
+    public double getInterpolation() {
+        ActiveRenderer r = activeRenderer;
+        return (r == null) ? 0.0 : r.getInterpolation();
+    }
+    
+    /**
+     * Replace the component that shows the Pad's drawing and receives mouse events
+     */
+    private void swapSurface(java.awt.Component next) {
+        if (eventsEnabled) {
+            surface.removeMouseListener(timedListener);
+            surface.removeMouseMotionListener(timedListener);
+            next.addMouseListener(timedListener);
+            next.addMouseMotionListener(timedListener);
+        }
+        getContentPane().remove(surface);
+        getContentPane().add(next);
+        surface = next;
+        validate();
+    }
+    
+    /**
+     * Run one frame of active rendering on the event dispatch thread.
+     * Raises the tick event once for each step due, then renders the entire Pad to the BufferStrategy.
+     * @param steps Number of tick steps due
+     */
+    void activeFrame(int steps) {
+        if (activeTicking) {
+            for (int i=0; i<steps; i++) fireTick(System.currentTimeMillis());
+        }
+        
+        java.awt.Canvas canvas = activeCanvas;
+        if (canvas == null || !canvas.isDisplayable()) return;
+        java.awt.image.BufferStrategy bs = canvas.getBufferStrategy();
+        if (bs == null) return;
+        
+        int width = canvas.getWidth();
+        int height = canvas.getHeight();
+        java.awt.Rectangle all = new java.awt.Rectangle(0, 0, width, height);
+        
+        // Redraw until the contents are neither restored nor lost while drawing
+        do {
+            do {
+                Graphics2D g2 = (Graphics2D)bs.getDrawGraphics();
+                try {
+                    renderScene(g2, all, width, height);
+                } finally {
+                    g2.dispose();
+                }
+            } while (bs.contentsRestored());
+            bs.show();
+        } while (bs.contentsLost());
+        
+        java.awt.Toolkit.getDefaultToolkit().sync();
+    }
+    
     /**
      * Return the milliseconds since midnight, January 1, 1970 UTC.
      * @return Milliseconds since midnight, January 1, 1970 UTC.
@@ -1560,14 +2399,19 @@ public class Pad extends JFrame implements Iterable<Shape>
             setTickRate(tickRate);
         }
         
-        // Make sure running
-        timer.start();
+        // Make sure running. The active render loop raises ticks itself.
+        if (activeRenderer != null) {
+            activeTicking = true;
+        } else {
+            timer.start();
+        }
     }
     
     /**
      * Stop timer
      */
     public void stopTimer() {
+        activeTicking = false;
         if (timer != null) timer.stop();
     }
     
@@ -1587,7 +2431,9 @@ public class Pad extends JFrame implements Iterable<Shape>
      * @return True or false indicating if the timer is running.
      */
     public boolean isRunning() {
-        if (timer == null) {
+        if (activeTicking) {
+            return true;
+        } else if (timer == null) {
             return false;
         } else {
             return timer.isRunning();
@@ -1872,10 +2718,22 @@ public class Pad extends JFrame implements Iterable<Shape>
         // As a precaution, attempt to closeConnection everything.
         stopListening();
         
+        // A non-blocking server serves all connections from a few event loop threads
+        if (serverEventLoops > 0) {
+            try {
+                nioServer = new NioServer(port, serverEventLoops, new NioEvents(), connectionCount::incrementAndGet);
+            } catch (IOException ex) {
+                invokeOnDispatch(SocketEventType.ServerError, "Server could not bind port " + port + ".");
+                return;
+            }
+            invokeOnDispatch(SocketEventType.ServerStarted);
+            nioServer.start();
+            return;
+        }
+        
         // ServerHandler manages server socket on separate thread
         server = new ServerHandler( port );
-        Thread worker = new Thread( server );
-        worker.start();
+        startNetworkThread( server );
         invokeOnDispatch(SocketEventType.ServerStarted);
     }
     
@@ -1891,6 +2749,184 @@ public class Pad extends JFrame implements Iterable<Shape>
             server.close();
             server = null;
         }
+        if (nioServer != null) {
+            nioServer.close();
+            nioServer = null;
+        }
+    }
+    
+    /**
+     * Choose how the next call to startListening() serves connections. When non-blocking, 
+     * all connections are served from a small, fixed pool of event loop threads using java.nio channels,
+     * so hundreds of clients do not need hundreds of threads. Otherwise each connection gets its own thread.
+     * Events and connection ids are the same in both modes.
+     * @param nonBlocking true to serve connections from event loop threads
+     */
+    public void setNonBlockingServer(boolean nonBlocking) {
+        int loops = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        setNonBlockingServer(nonBlocking, loops);
+    }
+    
+    /**
+     * Choose how the next call to startListening() serves connections, with a given number of event loop threads
+     * @param nonBlocking   true to serve connections from event loop threads
+     * @param eventLoops    Number of event loop threads used when non-blocking
+     */
+    public void setNonBlockingServer(boolean nonBlocking, int eventLoops) {
+        serverEventLoops = nonBlocking ? Math.max(1, eventLoops) : 0;
+    }
+    
+    /**
+     * Set the Executor that runs the server's accept loop and the read loop of each connection
+     * started after this call. Each loop blocks for as long as its socket is open,
+     * so the Executor must be able to run as many tasks at once as there are connections.
+     * The same Executor also runs the tasks that write each blocking connection's queued messages,
+     * so a bounded pool needs room for those writers beyond one thread per read loop,
+     * or sends stall until a connection closes.
+     * Pass null to start a new Thread for each, which is the default.
+     * @param executor The Executor for network threads, or null
+     */
+    public void setNetworkExecutor(Executor executor) {
+        if (virtualExecutor != null && virtualExecutor != executor) {
+            virtualExecutor.shutdown();
+            virtualExecutor = null;
+        }
+        networkExecutor = executor;
+    }
+    
+    /**
+     * Return the Executor that runs network threads
+     * @return The Executor, or null if a new Thread is started for each
+     */
+    public Executor getNetworkExecutor() {
+        return networkExecutor;
+    }
+    
+    /**
+     * Run the server's accept loop and each connection's read loop on virtual threads, which makes
+     * thousands of blocking connections cheap. Virtual threads require Java 21 or later. 
+     * On earlier versions, platform threads continue to be used and false is returned.
+     * @param virtual true to use virtual threads, false to go back to a new platform Thread for each
+     * @return true if virtual threads are now in use
+     */
+    public boolean setVirtualThreads(boolean virtual) {
+        if (!virtual) {
+            setNetworkExecutor(null);
+            return false;
+        }
+        
+        if (virtualExecutor != null && networkExecutor == virtualExecutor) return true;
+        
+        ExecutorService executor = newVirtualThreadExecutor();
+        if (executor == null) return false;
+        setNetworkExecutor(executor);
+        virtualExecutor = executor;
+        return true;
+    }
+    
+    /**
+     * Create an Executor that starts a virtual thread for each task. The factory method is looked up 
+     * by reflection so that DoodlePad still compiles and runs on Java versions without virtual threads.
+     * @return The new Executor, or null if virtual threads are not available
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // Not available, or a preview feature that is not enabled
+            return null;
+        }
+    }
+    
+    /**
+     * Run a network loop on the network Executor, or on a new Thread if there is none
+     */
+    private void startNetworkThread(Runnable loop) {
+        Executor executor = networkExecutor;
+        if (executor != null) {
+            executor.execute(loop);
+        } else {
+            Thread worker = new Thread( loop );
+            worker.start();
+        }
+    }
+    
+    /**
+     * Set what happens when a message is sent on a connection that already has the default 
+     * capacity of unsent messages waiting. Messages are queued for each connection and written
+     * by network threads, so send() and broadcast() return without waiting for a slow client 
+     * unless its queue is full. The default policy is BLOCK.
+     * Applies to connections opened after this call.
+     * @param policy The policy for a full queue
+     */
+    public void setSendPolicy(SendPolicy policy) {
+        setSendPolicy(policy, OutboundQueue.DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Set what happens when a message is sent on a connection whose queue is full, and the queue capacity.
+     * Applies to connections opened after this call.
+     * @param policy    The policy for a full queue
+     * @param capacity  The most bytes waiting to be sent on a connection before the policy applies
+     */
+    public void setSendPolicy(SendPolicy policy, int capacity) {
+        if (policy == null) return;
+        sendPolicy = policy;
+        sendCapacity = Math.max(1, capacity);
+    }
+    
+    /**
+     * Return what happens when a message is sent on a connection whose queue is full
+     * @return The SendPolicy
+     */
+    public SendPolicy getSendPolicy() {
+        return sendPolicy;
+    }
+    
+    /**
+     * Return the outbound queue depth, send counters and send rate of a connection
+     * @param id    The id of the connection
+     * @return A snapshot of the connection's counters, or null if there is no connection with the id
+     */
+    public ConnectionStats getConnectionStats(int id) {
+        Connection ch = clientConnections.get(id);
+        return (ch == null) ? null : ch.outbound().getStats(id);
+    }
+    
+    /**
+     * Create an outbound queue with the current capacity and policy
+     */
+    OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(sendCapacity, sendPolicy);
+    }
+    
+    /**
+     * Return the Executor that writes the outbound queues of blocking connections: the network Executor 
+     * if there is one, otherwise a shared pool of daemon threads that are reused and stop when idle
+     */
+    private Executor sendExecutor() {
+        Executor executor = networkExecutor;
+        if (executor != null) return executor;
+        
+        synchronized (Pad.class) {
+            if (sendPool == null) {
+                AtomicInteger count = new AtomicInteger();
+                sendPool = Executors.newCachedThreadPool(r -> {
+                    Thread t = new Thread(r, "doodlepad-send-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            return sendPool;
+        }
+    }
+    
+    /**
+     * Return whether the next call to startListening() starts a non-blocking server
+     * @return true if connections will be served from event loop threads
+     */
+    public boolean isNonBlockingServer() {
+        return serverEventLoops > 0;
     }
     
     /**
@@ -1915,8 +2951,7 @@ public class Pad extends JFrame implements Iterable<Shape>
         ClientConnection ch = new ClientConnection(socket, id);
         clientConnections.put(id, ch);
         
-        Thread worker = new Thread( ch );
-        worker.start();
+        startNetworkThread( ch );
         invokeOnDispatch(SocketEventType.ClientOpened, id);
         
         return id;
@@ -1947,7 +2982,7 @@ public class Pad extends JFrame implements Iterable<Shape>
     public void send(int id, String msg) 
     {
         try {
-            ClientConnection ch = clientConnections.get(id);
+            Connection ch = clientConnections.get(id);
             if (ch != null) {
                 ch.send(msg);
             } else {
@@ -1960,17 +2995,27 @@ public class Pad extends JFrame implements Iterable<Shape>
     
     /**
      * Broadcast a message to all open network connections.
+     * The message is encoded once, and every connection sends the same read-only copy of the bytes.
      * @param msg The message to broadcast.
      */
     public void broadcast(String msg) 
     {
         if (clientConnections != null && clientConnections.size() > 0)
         {
-            Iterator<Integer> it = clientConnections.keySet().iterator();
+            // A heap buffer, which channels copy through their own cached direct buffers,
+            // so no direct memory is allocated per broadcast
+            ByteBuffer line = OutboundQueue.encodeLine(msg).asReadOnlyBuffer();
+            
+            Iterator<Map.Entry<Integer, Connection>> it = clientConnections.entrySet().iterator();
             while (it.hasNext())
             {
-                Integer id = it.next();
-                send(id, msg);
+                Map.Entry<Integer, Connection> e = it.next();
+                try {
+                    // Each connection reads the shared bytes through its own position
+                    e.getValue().sendEncoded(line.duplicate());
+                } catch (Exception ex) {
+                    invokeOnDispatch(SocketEventType.ClientError, e.getKey(), "Error sending on client " + e.getKey() + ". " + ex);
+                }
             }
         }
     }
@@ -1982,7 +3027,7 @@ public class Pad extends JFrame implements Iterable<Shape>
     public void closeConnection(int id)
     {
         try {
-            ClientConnection ch = clientConnections.get(id);
+            Connection ch = clientConnections.get(id);
             if (ch != null) {
                 ch.close();
             } else {
@@ -2106,18 +3151,77 @@ public class Pad extends JFrame implements Iterable<Shape>
     {
         if (!SwingUtilities.isEventDispatchThread())
         {
-            SwingUtilities.invokeLater(new Runnable() 
-            {
-                @Override
-                public void run() {
-                    raiseEvent(typ, id, msg);
-                }
-            });
+            // Queue the event and schedule one drain for all events queued before it runs
+            socketEvents.add(new SocketEvent(typ, id, msg));
+            if (socketEventsPending.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(this::deliverSocketEvents);
+            }
         } else {
             raiseEvent(typ, id, msg);
         }
     }
     
+    /**
+     * Deliver queued socket events in the order they were raised. Consecutive messages received 
+     * on a connection are collected and delivered together through onClientReceivedBatch().
+     * Pending messages are delivered before any other event, so each connection's messages 
+     * stay in order with respect to each other and to its opened and closed events.
+     * An exception thrown by a handler does not keep later events from being delivered.
+     * The first one is rethrown after the rest, so it still reaches the dispatch thread's exception handler.
+     */
+    private void deliverSocketEvents()
+    {
+        socketEventsPending.set(false);
+        
+        Map<Integer, List<String>> batches = new LinkedHashMap<>();
+        RuntimeException failure = null;
+        try {
+            SocketEvent ev;
+            for (int n=0; n<MAX_SOCKET_EVENTS_PER_TURN && (ev = socketEvents.poll()) != null; n++) {
+                if (ev.typ == SocketEventType.ClientReceived) {
+                    batches.computeIfAbsent(ev.id, k -> new ArrayList<>()).add(ev.msg);
+                } else {
+                    failure = deliverBatches(batches, failure);
+                    try {
+                        raiseEvent(ev.typ, ev.id, ev.msg);
+                    } catch (RuntimeException ex) {
+                        if (failure == null) failure = ex;
+                    }
+                }
+            }
+            failure = deliverBatches(batches, failure);
+        } finally {
+            // Leave what remains for a later turn, after pending input events
+            if (!socketEvents.isEmpty() && socketEventsPending.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(this::deliverSocketEvents);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+    
+    /**
+     * Deliver and clear collected batches of received messages. Every batch is delivered
+     * even if a handler throws.
+     * @param batches   Messages collected for each connection id
+     * @param failure   The first exception thrown by a handler so far, or null
+     * @return The first exception thrown by a handler, including any thrown so far, or null
+     */
+    private RuntimeException deliverBatches(Map<Integer, List<String>> batches, RuntimeException failure) {
+        if (batches.isEmpty()) return failure;
+        
+        Iterator<Map.Entry<Integer, List<String>>> it = batches.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, List<String>> e = it.next();
+            it.remove();
+            try {
+                onClientReceivedBatch(e.getKey(), e.getValue());
+            } catch (RuntimeException ex) {
+                if (failure == null) failure = ex;
+            }
+        }
+        return failure;
+    }
+    
     /**
      * Interface for the dispatch method with a signature having no parametes.
      */
@@ -2249,6 +3353,26 @@ public class Pad extends JFrame implements Iterable<Shape>
         // Override to implement
     }
     
+    /**
+     * Invoked with all messages that a connected client socket received since the last time 
+     * the dispatch thread delivered socket events, in the order received.
+     * Override to handle a burst of messages at once. By default, invokes onClientReceived() for each message.
+     * If onClientReceived() throws, the remaining messages are still delivered and the first exception is then rethrown.
+     * @param id    Unique client id
+     * @param msgs  Message Strings received. The list is not reused and may be kept.
+     */
+    public void onClientReceivedBatch(int id, List<String> msgs) {
+        RuntimeException failure = null;
+        for (int i=0; i<msgs.size(); i++) {
+            try {
+                onClientReceived(id, msgs.get(i));
+            } catch (RuntimeException ex) {
+                if (failure == null) failure = ex;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+    
     /**
      * Invoked when a connected client socket has some information to share
      * @param id    Unique client id
@@ -2272,22 +3396,201 @@ public class Pad extends JFrame implements Iterable<Shape>
      */
     private ShapeMouseListener getShapeMouseListener(MouseEvent e)
     {
-        try {
-            // Get the shape key, which is the color
-            java.awt.Point p = e.getPoint();
-            int i = hitImg.getRGB(p.x, p.y);
-            Color key = new Color(i, true);
+        if (hitTestMode == HitTestMode.GEOMETRIC) {
+            return pickShapeMouseListener(e.getX(), e.getY());
+        }
+        
+        // Bring the hit image up to date before reading it
+        updateHitImage();
+        
+        // Ignore events outside of the hit image
+        int x = e.getX();
+        int y = e.getY();
+        if (x < 0 || y < 0 || x >= hitImg.getWidth() || y >= hitImg.getHeight()) return null;
+        
+        // Get the shape key, which is the RGB portion of the pixel color.
+        // The pixel is read into a reusable buffer to avoid allocating on every mouse event.
+        hitImg.getRaster().getDataElements(x, y, hitPixel);
+        int key = hitPixel[0] & 0xFFFFFF;
+        
+        // Check to see if the key has an associated Shape
+        synchronized (hitKeyLock) {
+            if (key < hitListeners.length) return hitListeners[key];
+        }
+        
+        // No Shape at event location.
+        return null;
+    }
+    
+    /**
+     * Return the hit key of a Shape, assigning one if it does not yet have a key.
+     * Keys of removed Shapes are reused once they no longer appear in the hit-detection image.
+     * @throws IllegalStateException if every key that fits in the hit-detection image is in use
+     */
+    private int assignHitKey(Shape s)
+    {
+        if (s.hitKey >= 0) return s.hitKey;
+        
+        synchronized (hitKeyLock) {
+            int key = (freeHitKeyCount > 0) ? freeHitKeys[--freeHitKeyCount] : nextHitKey++;
             
-            // Check to see if the color has an associated Shape
-            if ( hitHash.containsKey(key) ) {
-                return hitHash.get(key);
+            // The background of the hit image is white, so that key may not be used
+            if (key >= 0xFFFFFF) {
+                nextHitKey--;
+                throw new IllegalStateException("Too many event-enabled Shapes for hit detection. At most " 
+                        + 0xFFFFFF + " may be on a Pad at once. Use HitTestMode.GEOMETRIC or disable events on some Shapes.");
+            }
+            
+            if (key >= hitListeners.length) {
+                hitListeners = java.util.Arrays.copyOf(hitListeners, Math.max(2*hitListeners.length, key + 1));
+            }
+            s.hitKey = key;
+            s.hitColor = new Color(key);
+            return key;
+        }
+    }
+    
+    /**
+     * Release the hit key of a Shape removed from the Pad.
+     * The key is recycled after the region of the hit image where it may appear has been redrawn.
+     * @param s The removed Shape
+     */
+    void releaseHitKey(Shape s)
+    {
+        synchronized (hitKeyLock) {
+            int key = s.hitKey;
+            if (key < 0) return;
+            
+            hitListeners[key] = null;
+            s.hitKey = -1;
+            s.hitColor = null;
+            
+            if (releasedHitKeyCount == releasedHitKeys.length) {
+                releasedHitKeys = java.util.Arrays.copyOf(releasedHitKeys, 2*releasedHitKeys.length);
+            }
+            releasedHitKeys[releasedHitKeyCount++] = key;
+            
+            Rectangle2D.Double bounds = s.paintedBounds;
+            if (bounds != null) {
+                if (releasedHitBounds == null) releasedHitBounds = new Rectangle2D.Double();
+                if (releasedHitBounds.isEmpty()) releasedHitBounds.setRect(bounds);
+                else releasedHitBounds.add(bounds);
+            }
+        }
+    }
+    
+    /**
+     * Redraw the stale region of the hit-detection image, if any.
+     * Every event-enabled Shape is drawn filled and stroked with a color that is its hit key.
+     */
+    private void updateHitImage()
+    {
+        // Removed Shapes may still appear in the image where they were last painted.
+        // Redraw that region too, after which their keys can be reused.
+        synchronized (hitKeyLock) {
+            if (releasedHitBounds != null && !releasedHitBounds.isEmpty()) {
+                java.awt.Rectangle r = releasedHitBounds.getBounds();
+                hitDirty = (hitDirty == null) ? r : hitDirty.union(r);
+                releasedHitBounds.setRect(0.0, 0.0, 0.0, 0.0);
             }
-        } catch (Exception ex) {
-            // Ignore errors. Just return null.
-            return null;
         }
         
-        // No Shape at event location.
+        if (hitDirty == null) return;
+        java.awt.Rectangle clip = hitDirty;
+        hitDirty = null;
+        long t0 = System.nanoTime();
+        
+        synchronized (hitKeyLock) {
+            while (releasedHitKeyCount > 0) {
+                if (freeHitKeyCount == freeHitKeys.length) {
+                    freeHitKeys = java.util.Arrays.copyOf(freeHitKeys, 2*freeHitKeys.length);
+                }
+                freeHitKeys[freeHitKeyCount++] = releasedHitKeys[--releasedHitKeyCount];
+            }
+        }
+        
+        // Count the hit image redraws that deferring made unnecessary
+        hitImageRebuilds++;
+        hitImageRebuildsAvoided += Math.max(0, hitPaintsPending - 1);
+        hitPaintsPending = 0;
+        
+        // Get ready to draw to the in-memory image used for hit detection
+        Graphics2D gh = (Graphics2D)hitImg.createGraphics();
+        gh.setRenderingHint(java.awt.RenderingHints.KEY_ANTIALIASING, java.awt.RenderingHints.VALUE_ANTIALIAS_OFF);
+        gh.setClip(clip);
+        gh.setColor( Color.white );
+        gh.fillRect(clip.x, clip.y, clip.width, clip.height);
+        
+        try {
+            for (Layer layer : layers) {
+                
+                AffineTransform saveTransform = gh.getTransform();
+                gh.transform( layer.transform );
+                
+                for (Shape s : layer.snapshot()) {
+                    // Only visible Shapes configured to receive events and overlapping the stale region
+                    if (!s.visible || !s.eventsEnabled) continue;
+                    if (!s.getDeviceBounds().intersects(clip)) continue;
+                    
+                    // Save a copy of the Layer transform
+                    AffineTransform ghat = gh.getTransform();
+    
+                    // Apply the Shape transform
+                    gh.transform( s.transform );
+    
+                    // Draw the shape filled and stroked, with color corresponding to its key.
+                    // Keys are kept stable so that partial redraws leave the rest of the image valid.
+                    int key = assignHitKey(s);
+                    s.draw(gh, s.hitColor);
+                    synchronized (hitKeyLock) {
+                        hitListeners[key] = s.shapeListener;
+                    }
+    
+                    // Reset the Layer transform
+                    gh.setTransform(ghat);
+                }
+                
+                // Restore the original transform
+                gh.setTransform(saveTransform);
+            }
+        } finally {
+            gh.dispose();
+        }
+        renderStats.addHitImageNanos(System.nanoTime() - t0);
+    }
+    
+    /**
+     * Return the number of times the hit-detection image has been redrawn for a mouse event.
+     * @return Number of hit image redraws
+     */
+    public long getHitImageRebuilds() {
+        return hitImageRebuilds;
+    }
+    
+    /**
+     * Return the number of paints whose hit-detection image redraw was skipped because no
+     * mouse event needed the hit image before the next paint.
+     * @return Number of hit image redraws avoided
+     */
+    public long getHitImageRebuildsAvoided() {
+        return hitImageRebuildsAvoided;
+    }
+    
+    /**
+     * Find the listener of the front-most Shape at a window location by testing geometry,
+     * starting with the top Layer.
+     */
+    private ShapeMouseListener pickShapeMouseListener(double x, double y)
+    {
+        Point2D.Double pt = new Point2D.Double();
+        Layer[] ls = layers.toArray(new Layer[0]);
+        for (int l=ls.length-1; l>=0; l--) {
+            Layer layer = ls[l];
+            if (!layer.toLayerCoords(x, y, pt)) continue;
+            
+            Shape s = layer.pick(pt.x, pt.y);
+            if (s != null) return s.shapeListener;
+        }
         return null;
     }
     
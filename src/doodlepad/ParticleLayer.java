@@ -0,0 +1,485 @@
+/*
+ * ParticleLayer.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package doodlepad;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * A Layer that holds a large number of particles in primitive arrays rather than as Shape objects.
+ * Each particle is a filled square with a center location, a size, a rotation and a packed ARGB color.
+ * Particles are drawn in a tight loop directly into an image, which is then drawn to the Pad in one step,
+ * so a ParticleLayer can hold millions of particles. A ParticleLayer takes part in the Pad's Layer order
+ * and its transform applies to all particles. Shapes may also be added to a ParticleLayer and are drawn above the particles.
+ *
+ * Particles are referred to by index. Removing a particle moves the last particle into its index.
+ * Particles are changed one at a time with the set methods, or all at once with update(),
+ * which passes the particle arrays to a ParticleUpdater and repaints once.
+ *
+ * @author Mark F. Russo, Ph.D.
+ * @version 1.0
+ */
+public class ParticleLayer extends Layer
+{
+    /**
+     * Interface implemented to change many particles at once.
+     * The arrays may be longer than count. Only the first count entries are particles.
+     */
+    public interface ParticleUpdater {
+        public void update(double[] x, double[] y, double[] size, double[] rotation, int[] color, int count);
+    }
+
+    /**
+     * Particles that cover no more than this many pixels on a side are drawn as a single pixel
+     */
+    private static final double POINT_SIZE = 1.5;
+
+    /**
+     * Particle data
+     */
+    private double[] x;
+    private double[] y;
+    private double[] size;
+    private double[] rotation;
+    private int[] color;
+    private int count = 0;
+
+    /**
+     * Lock guarding the particle data, which may be changed on any thread while the Layer is drawn
+     */
+    private final Object particleLock = new Object();
+
+    /**
+     * Image into which particles are drawn and its pixel array
+     */
+    private BufferedImage particleImg = null;
+    private int[] pixels = null;
+
+    /**
+     * ParticleLayer constructor
+     * @param pad       The Pad that holds this Layer, or null if the Layer is not shown on a Pad
+     * @param capacity  The initial number of particles for which space is reserved
+     */
+    public ParticleLayer(Pad pad, int capacity) {
+        super(pad);
+        capacity = Math.max(capacity, 16);
+        x = new double[capacity];
+        y = new double[capacity];
+        size = new double[capacity];
+        rotation = new double[capacity];
+        color = new int[capacity];
+    }
+
+    /**
+     * ParticleLayer constructor
+     * @param pad   The Pad that holds this Layer, or null if the Layer is not shown on a Pad
+     */
+    public ParticleLayer(Pad pad) {
+        this(pad, 1024);
+    }
+
+    /**
+     * Add a particle
+     * @param x         x-coordinate of the particle center
+     * @param y         y-coordinate of the particle center
+     * @param size      Length of a side of the particle
+     * @param argb      Color of the particle packed as 0xAARRGGBB
+     * @return The index of the new particle
+     */
+    public int addParticle(double x, double y, double size, int argb) {
+        int idx;
+        synchronized (particleLock) {
+            if (count == this.x.length) grow(2*count);
+            idx = count++;
+            this.x[idx] = x;
+            this.y[idx] = y;
+            this.size[idx] = size;
+            this.rotation[idx] = 0.0;
+            this.color[idx] = argb;
+        }
+        repaint();
+        return idx;
+    }
+
+    /**
+     * Add a particle
+     * @param x         x-coordinate of the particle center
+     * @param y         y-coordinate of the particle center
+     * @param size      Length of a side of the particle
+     * @param color     Color of the particle
+     * @return The index of the new particle
+     */
+    public int addParticle(double x, double y, double size, Color color) {
+        return addParticle(x, y, size, color.getRGB());
+    }
+
+    /**
+     * Remove a particle. The last particle is moved into the index of the removed particle.
+     * @param idx Index of the particle to remove
+     */
+    public void removeParticle(int idx) {
+        synchronized (particleLock) {
+            checkIndex(idx);
+            int last = --count;
+            x[idx] = x[last];
+            y[idx] = y[last];
+            size[idx] = size[last];
+            rotation[idx] = rotation[last];
+            color[idx] = color[last];
+        }
+        repaint();
+    }
+
+    /**
+     * Remove all particles
+     */
+    public void clearParticles() {
+        synchronized (particleLock) {
+            count = 0;
+        }
+        repaint();
+    }
+
+    /**
+     * Return the number of particles
+     * @return Number of particles
+     */
+    public int getParticleCount() {
+        synchronized (particleLock) {
+            return count;
+        }
+    }
+
+    /**
+     * Set the number of particles, growing storage as needed.
+     * New particles are at the origin with a size of 1, no rotation, and a color of 0 (transparent).
+     * @param n The new number of particles
+     */
+    public void setParticleCount(int n) {
+        if (n < 0) throw new IllegalArgumentException("Particle count must not be negative");
+        synchronized (particleLock) {
+            if (n > x.length) grow(n);
+            for (int i=count; i<n; i++) {
+                x[i] = 0.0;
+                y[i] = 0.0;
+                size[i] = 1.0;
+                rotation[i] = 0.0;
+                color[i] = 0;
+            }
+            count = n;
+        }
+        repaint();
+    }
+
+    /**
+     * Set the location of a particle center
+     * @param idx   Index of the particle
+     * @param x     New x-coordinate
+     * @param y     New y-coordinate
+     */
+    public void setLocation(int idx, double x, double y) {
+        synchronized (particleLock) {
+            checkIndex(idx);
+            this.x[idx] = x;
+            this.y[idx] = y;
+        }
+        repaint();
+    }
+
+    /**
+     * Set the size of a particle
+     * @param idx   Index of the particle
+     * @param size  Length of a side of the particle
+     */
+    public void setSize(int idx, double size) {
+        synchronized (particleLock) {
+            checkIndex(idx);
+            this.size[idx] = size;
+        }
+        repaint();
+    }
+
+    /**
+     * Set the rotation of a particle about its center
+     * @param idx       Index of the particle
+     * @param degrees   Rotation angle in degrees
+     */
+    public void setRotation(int idx, double degrees) {
+        synchronized (particleLock) {
+            checkIndex(idx);
+            this.rotation[idx] = degrees;
+        }
+        repaint();
+    }
+
+    /**
+     * Set the color of a particle
+     * @param idx   Index of the particle
+     * @param argb  Color packed as 0xAARRGGBB
+     */
+    public void setColor(int idx, int argb) {
+        synchronized (particleLock) {
+            checkIndex(idx);
+            this.color[idx] = argb;
+        }
+        repaint();
+    }
+
+    /**
+     * Return the x-coordinate of a particle center
+     * @param idx Index of the particle
+     * @return x-coordinate
+     */
+    public double getX(int idx) {
+        synchronized (particleLock) {
+            checkIndex(idx);
+            return x[idx];
+        }
+    }
+
+    /**
+     * Return the y-coordinate of a particle center
+     * @param idx Index of the particle
+     * @return y-coordinate
+     */
+    public double getY(int idx) {
+        synchronized (particleLock) {
+            checkIndex(idx);
+            return y[idx];
+        }
+    }
+
+    /**
+     * Return the size of a particle
+     * @param idx Index of the particle
+     * @return Length of a side of the particle
+     */
+    public double getSize(int idx) {
+        synchronized (particleLock) {
+            checkIndex(idx);
+            return size[idx];
+        }
+    }
+
+    /**
+     * Return the rotation of a particle
+     * @param idx Index of the particle
+     * @return Rotation angle in degrees
+     */
+    public double getRotation(int idx) {
+        synchronized (particleLock) {
+            checkIndex(idx);
+            return rotation[idx];
+        }
+    }
+
+    /**
+     * Return the color of a particle
+     * @param idx Index of the particle
+     * @return Color packed as 0xAARRGGBB
+     */
+    public int getColor(int idx) {
+        synchronized (particleLock) {
+            checkIndex(idx);
+            return color[idx];
+        }
+    }
+
+    /**
+     * Change any number of particles at once and repaint once afterward.
+     * The updater runs while the particles are locked, so it must not call other ParticleLayer methods from another thread.
+     * @param updater The ParticleUpdater that receives the particle arrays
+     */
+    public void update(ParticleUpdater updater) {
+        synchronized (particleLock) {
+            updater.update(x, y, size, rotation, color, count);
+        }
+        repaint();
+    }
+
+    /**
+     * Particles are drawn into one shared image, so a ParticleLayer is never split into tiles
+     */
+    @Override
+    boolean drawsInTiles() {
+        return false;
+    }
+
+    /**
+     * Draw all particles, then any Shapes on this Layer
+     */
+    @Override
+    void draw(Graphics2D g2, Rectangle2D clip, int width, int height)
+    {
+        int drawn = 0;
+        int culled = 0;
+        if (width > 0 && height > 0) {
+            java.awt.Rectangle region = clip.getBounds().intersection(new java.awt.Rectangle(0, 0, width, height));
+            if (!region.isEmpty()) {
+                if (particleImg == null || particleImg.getWidth() != width || particleImg.getHeight() != height) {
+                    particleImg = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+                    pixels = ((DataBufferInt)particleImg.getRaster().getDataBuffer()).getData();
+                }
+
+                // Clear the part of the image being redrawn
+                for (int row=region.y; row<region.y + region.height; row++) {
+                    Arrays.fill(pixels, row*width + region.x, row*width + region.x + region.width, 0);
+                }
+
+                synchronized (particleLock) {
+                    drawn = drawParticles(region, width);
+                    culled = count - drawn;
+                }
+
+                java.awt.Shape saveClip = g2.getClip();
+                g2.clip(region);
+                g2.drawImage(particleImg, 0, 0, null);
+                g2.setClip(saveClip);
+            }
+        }
+
+        super.draw(g2, clip, width, height);
+        shapesDrawn += drawn;
+        shapesCulled += culled;
+    }
+
+    /**
+     * Draw the particles that fall within a region of the particle image.
+     * Small particles are blended as single pixels and axis-aligned particles as pixel rectangles.
+     * Rotated particles are filled with Graphics2D.
+     * Called while holding particleLock.
+     * @return The number of particles drawn
+     */
+    private int drawParticles(java.awt.Rectangle region, int width)
+    {
+        AffineTransform tx = transform;
+        double m00 = tx.getScaleX(), m01 = tx.getShearX(), m02 = tx.getTranslateX();
+        double m10 = tx.getShearY(), m11 = tx.getScaleY(), m12 = tx.getTranslateY();
+        double scale = Math.sqrt(Math.abs(m00*m11 - m01*m10));
+        double reach = Math.max(Math.abs(m00) + Math.abs(m01), Math.abs(m10) + Math.abs(m11));
+        boolean axisAligned = (m01 == 0.0 && m10 == 0.0);
+
+        int minX = region.x, minY = region.y;
+        int maxX = region.x + region.width, maxY = region.y + region.height;
+
+        Graphics2D gp = null;
+        int drawn = 0;
+
+        for (int i=0; i<count; i++) {
+            int argb = color[i];
+            if ((argb >>> 24) == 0) continue;
+
+            double px = m00*x[i] + m01*y[i] + m02;
+            double py = m10*x[i] + m11*y[i] + m12;
+            double side = size[i]*scale;
+
+            if (side <= POINT_SIZE) {
+                // Blend a single pixel
+                int ix = (int)Math.floor(px);
+                int iy = (int)Math.floor(py);
+                if (ix < minX || iy < minY || ix >= maxX || iy >= maxY) continue;
+                blend(iy*width + ix, argb);
+                drawn++;
+
+            } else if (axisAligned && rotation[i] % 90.0 == 0.0) {
+                // Blend an axis-aligned rectangle of pixels
+                double hw = 0.5*size[i]*Math.abs(m00);
+                double hh = 0.5*size[i]*Math.abs(m11);
+                int x0 = Math.max(minX, (int)Math.round(px - hw));
+                int y0 = Math.max(minY, (int)Math.round(py - hh));
+                int x1 = Math.min(maxX, (int)Math.round(px + hw));
+                int y1 = Math.min(maxY, (int)Math.round(py + hh));
+                if (x0 >= x1 || y0 >= y1) continue;
+                for (int row=y0; row<y1; row++) {
+                    int off = row*width;
+                    for (int col=x0; col<x1; col++) blend(off + col, argb);
+                }
+                drawn++;
+
+            } else {
+                // Rotated squares are rare enough to fill with Graphics2D
+                double half = 0.5*size[i];
+                double r = half*Math.sqrt(2.0)*reach;
+                if (px + r < minX || py + r < minY || px - r >= maxX || py - r >= maxY) continue;
+                if (gp == null) {
+                    gp = particleImg.createGraphics();
+                    gp.setRenderingHint(java.awt.RenderingHints.KEY_ANTIALIASING, java.awt.RenderingHints.VALUE_ANTIALIAS_ON);
+                    gp.clip(region);
+                    gp.transform(tx);
+                }
+                AffineTransform save = gp.getTransform();
+                gp.translate(x[i], y[i]);
+                gp.rotate(Math.toRadians(rotation[i]));
+                gp.setColor(new Color(argb, true));
+                gp.fill(new Rectangle2D.Double(-half, -half, size[i], size[i]));
+                gp.setTransform(save);
+                drawn++;
+            }
+        }
+
+        if (gp != null) gp.dispose();
+        return drawn;
+    }
+
+    /**
+     * Blend a non-premultiplied ARGB color over one premultiplied pixel
+     */
+    private void blend(int idx, int argb) {
+        int a = argb >>> 24;
+        if (a == 255) {
+            pixels[idx] = argb;
+            return;
+        }
+        int inv = 255 - a;
+        int dst = pixels[idx];
+        int da = (dst >>> 24)         * inv / 255 + a;
+        int dr = ((dst >> 16) & 0xFF) * inv / 255 + ((argb >> 16) & 0xFF) * a / 255;
+        int dg = ((dst >>  8) & 0xFF) * inv / 255 + ((argb >>  8) & 0xFF) * a / 255;
+        int db = ( dst        & 0xFF) * inv / 255 + ( argb        & 0xFF) * a / 255;
+        pixels[idx] = (da << 24) | (dr << 16) | (dg << 8) | db;
+    }
+
+    /**
+     * Grow the particle arrays to hold at least n particles
+     */
+    private void grow(int n) {
+        int cap = Math.max(n, 16);
+        x = Arrays.copyOf(x, cap);
+        y = Arrays.copyOf(y, cap);
+        size = Arrays.copyOf(size, cap);
+        rotation = Arrays.copyOf(rotation, cap);
+        color = Arrays.copyOf(color, cap);
+    }
+
+    /**
+     * Throw an exception if an index does not refer to a particle
+     */
+    private void checkIndex(int idx) {
+        if (idx < 0 || idx >= count) throw new IndexOutOfBoundsException("Particle index " + idx + " out of range 0 to " + (count - 1));
+    }
+}
@@ -22,7 +22,6 @@
 
 package doodlepad;
 
-import java.awt.BasicStroke;
 import java.awt.Graphics2D;
 import java.util.ArrayList;
 import java.awt.geom.Path2D;
@@ -218,6 +217,7 @@ public class Path extends Shape
         ops.add( new MoveTo(x, y) );
         rebuildPath();
         updateBoundingBox();
+        repaint();
     }
     
     /**
@@ -229,6 +229,7 @@ public class Path extends Shape
         ops.add( new LineTo(x, y) );
         rebuildPath();
         updateBoundingBox();
+        repaint();
     }
     
     /**
@@ -242,6 +243,7 @@ public class Path extends Shape
         ops.add( new QuadTo(cx1, cy1, x, y) );
         rebuildPath();
         updateBoundingBox();
+        repaint();
     }
     
     /**
@@ -257,6 +259,7 @@ public class Path extends Shape
         ops.add( new CurveTo(cx1, cy1, cx2, cy2, x, y) );
         rebuildPath();
         updateBoundingBox();
+        repaint();
     }
     
     /**
@@ -265,6 +268,7 @@ public class Path extends Shape
     public void closePath() {
         ops.add( new ClosePath() );
         rebuildPath();
+        repaint();
     }
     
     /**
@@ -375,6 +379,15 @@ public class Path extends Shape
         super.setSize(w, h);
     }
     
+    /**
+     * Get the outline of the Path, which is the internal path object
+     * @return The Path2D used to draw the Path
+     */
+    @Override
+    java.awt.Shape getOutline() {
+        return path;
+    }
+    
     /**
      * Draw the Path object
      * @param g The Graphics2D object on which to draw the Path
@@ -390,9 +403,7 @@ public class Path extends Shape
         if (stroked == true && strokeWidth > 0.0) {
             g.setColor(this.strokeColor);
             
-            float _strokeWidth = (float)strokeWidth;
-            //if (selected) _strokeWidth = 2.0f*_strokeWidth;
-            g.setStroke( new BasicStroke(_strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
+            g.setStroke( getDrawStroke() );
             
             g.draw(path);
         }
@@ -22,7 +22,6 @@
 
 package doodlepad;
 
-import java.awt.BasicStroke;
 import java.awt.Graphics2D;
 import java.awt.geom.Path2D;
 import java.util.Arrays;
@@ -289,6 +288,7 @@ public class Polygon extends Shape
         xPoints[i] = x;
         this.rebuildPath();
         this.updateBoundingBox();
+        this.repaint();
     }
     
     /**
@@ -309,6 +309,16 @@ public class Polygon extends Shape
         yPoints[i] = y;
         this.rebuildPath();
         this.updateBoundingBox();
+        this.repaint();
+    }
+    
+    /**
+     * Get the outline of the Polygon, which is the internal path object
+     * @return The Path2D used to draw the Polygon
+     */
+    @Override
+    java.awt.Shape getOutline() {
+        return path;
     }
     
     /**
@@ -326,8 +336,7 @@ public class Polygon extends Shape
         if (stroked == true && strokeWidth > 0.0) {
             g.setColor( strokeColor );
             
-            float _strokeWidth = (float)strokeWidth;
-            g.setStroke( new BasicStroke(_strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
+            g.setStroke( getDrawStroke() );
             
             g.draw(path);
         }
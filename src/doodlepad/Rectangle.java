@@ -23,7 +23,6 @@
 package doodlepad;
 
 import java.awt.Graphics2D;
-import java.awt.BasicStroke;
 import java.awt.geom.Rectangle2D;
 import java.util.Random;
 
@@ -79,7 +78,7 @@ public class Rectangle extends Shape
     @Override
     public void draw(Graphics2D g)
     {
-        Rectangle2D.Double rect = new Rectangle2D.Double(x, y, width, height);
+        Rectangle2D.Double rect = getDrawFrame();
         
         if (filled == true) {
             g.setColor(fillColor);
@@ -89,8 +88,7 @@ public class Rectangle extends Shape
         if (stroked == true && strokeWidth > 0.0) {
             g.setColor(strokeColor);
             
-            float _strokeWidth = (float)strokeWidth;
-            g.setStroke( new BasicStroke(_strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
+            g.setStroke( getDrawStroke() );
             g.draw( rect );
         }
 
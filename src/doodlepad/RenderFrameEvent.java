@@ -0,0 +1,73 @@
+/*
+ * RenderFrameEvent.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package doodlepad;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A JDK Flight Recorder event emitted for each frame rendered by a Pad.
+ * The event is disabled unless turned on in a recording, in which case it can be 
+ * correlated with garbage collection and other JVM events.
+ *
+ * @author Mark F. Russo, Ph.D.
+ * @version 1.0
+ */
+@Name("doodlepad.RenderFrame")
+@Label("DoodlePad Frame")
+@Category("DoodlePad")
+@Description("A frame rendered by a DoodlePad Pad")
+final class RenderFrameEvent extends Event
+{
+    @Label("Clear Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long clearNanos;
+    
+    @Label("Layer Draw Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long layerNanos;
+    
+    @Label("Hit Image Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long hitImageNanos;
+    
+    @Label("Event Dispatch Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long eventNanos;
+    
+    @Label("Shapes Drawn")
+    int shapesDrawn;
+    
+    @Label("Shapes Culled")
+    int shapesCulled;
+    
+    @Label("Allocated")
+    @DataAmount(DataAmount.BYTES)
+    long allocatedBytes;
+}
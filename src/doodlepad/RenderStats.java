@@ -0,0 +1,387 @@
+/*
+ * RenderStats.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package doodlepad;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Timings and counters for recently rendered frames of a Pad, kept in a ring buffer.
+ * A frame is one pass that redraws a region of the Pad, either a Swing paint or a frame of active rendering.
+ * Time spent drawing the hit-detection image and dispatching mouse and key events 
+ * between two frames is charged to the later frame.
+ * All times are in nanoseconds.
+ * Recording reuses the slots of the ring buffer, so measuring a frame allocates nothing
+ * unless a Flight Recorder recording is collecting frame events.
+ * Frames returned by queries are copies that do not change.
+ *
+ * @author Mark F. Russo, Ph.D.
+ * @version 1.0
+ */
+public final class RenderStats
+{
+    /**
+     * Default number of recent frames retained
+     */
+    static final int DEFAULT_CAPACITY = 120;
+    
+    /**
+     * Measurements of a single frame
+     */
+    public static final class Frame
+    {
+        // Overwritten only while the Frame is a slot of the ring buffer, never once returned
+        private long timestamp;
+        private long totalNanos;
+        private long clearNanos;
+        private long[] layerNanos = new long[0];
+        private long hitImageNanos;
+        private long eventNanos;
+        private int shapesDrawn;
+        private int shapesCulled;
+        private long allocatedBytes;
+        
+        private Frame() {
+        }
+        
+        /**
+         * Return a copy of this Frame that is not shared with the ring buffer
+         */
+        private Frame copy() {
+            Frame f = new Frame();
+            f.timestamp = timestamp;
+            f.totalNanos = totalNanos;
+            f.clearNanos = clearNanos;
+            f.layerNanos = layerNanos.clone();
+            f.hitImageNanos = hitImageNanos;
+            f.eventNanos = eventNanos;
+            f.shapesDrawn = shapesDrawn;
+            f.shapesCulled = shapesCulled;
+            f.allocatedBytes = allocatedBytes;
+            return f;
+        }
+        
+        /**
+         * Return the time the frame finished, in milliseconds since midnight, January 1, 1970 UTC
+         * @return Frame timestamp
+         */
+        public long getTimestamp() { return timestamp; }
+        
+        /**
+         * Return the total time spent rendering the frame
+         * @return Render time in nanoseconds
+         */
+        public long getTotalNanos() { return totalNanos; }
+        
+        /**
+         * Return the time spent clearing the background
+         * @return Clear time in nanoseconds
+         */
+        public long getClearNanos() { return clearNanos; }
+        
+        /**
+         * Return the number of Layers drawn in the frame
+         * @return Number of Layers
+         */
+        public int getLayerCount() { return layerNanos.length; }
+        
+        /**
+         * Return the time spent drawing a Layer
+         * @param idx Index of the Layer
+         * @return Layer draw time in nanoseconds
+         */
+        public long getLayerNanos(int idx) { return layerNanos[idx]; }
+        
+        /**
+         * Return the time spent redrawing the hit-detection image since the previous frame
+         * @return Hit image draw time in nanoseconds
+         */
+        public long getHitImageNanos() { return hitImageNanos; }
+        
+        /**
+         * Return the time spent dispatching mouse and key events since the previous frame
+         * @return Event dispatch time in nanoseconds
+         */
+        public long getEventNanos() { return eventNanos; }
+        
+        /**
+         * Return the number of Shapes drawn
+         * @return Shapes drawn
+         */
+        public int getShapesDrawn() { return shapesDrawn; }
+        
+        /**
+         * Return the number of visible Shapes skipped because they were outside the region redrawn
+         * @return Shapes culled
+         */
+        public int getShapesCulled() { return shapesCulled; }
+        
+        /**
+         * Return the bytes allocated by the rendering thread while rendering the frame
+         * @return Allocated bytes, or -1 if the JVM cannot measure allocation
+         */
+        public long getAllocatedBytes() { return allocatedBytes; }
+        
+        /**
+         * Generate a representation of the Frame
+         * @return String representation
+         */
+        @Override
+        public String toString() {
+            return "Frame total=" + totalNanos + ", clear=" + clearNanos + ", layers=" + Arrays.toString(layerNanos)
+                + ", hitImage=" + hitImageNanos + ", events=" + eventNanos + ", drawn=" + shapesDrawn 
+                + ", culled=" + shapesCulled + ", allocated=" + allocatedBytes;
+        }
+    }
+    
+    /**
+     * Ring buffer of recent frames. Every slot is allocated up front and reused.
+     */
+    private final Frame[] frames;
+    private int count = 0;
+    private int next = 0;
+    private long totalFrames = 0;
+    
+    /**
+     * Times accumulated between frames, charged to the next frame
+     */
+    private long pendingHitImageNanos = 0;
+    private long pendingEventNanos = 0;
+    
+    /**
+     * Measurements of the frame being rendered
+     */
+    private long frameStart;
+    private long frameAllocStart;
+    private long clearNanos;
+    private long[] layerNanos = new long[0];
+    private int shapesDrawn;
+    private int shapesCulled;
+    private RenderFrameEvent event;
+    
+    /**
+     * Thread allocation counter, or null if the JVM cannot measure allocation
+     */
+    private static final com.sun.management.ThreadMXBean ALLOC_BEAN = allocationBean();
+    
+    /**
+     * The Flight Recorder type of frame events, looked up once Flight Recorder has started
+     */
+    private static volatile jdk.jfr.EventType frameEventType = null;
+    
+    /**
+     * Create a RenderStats object that retains a number of recent frames
+     * @param capacity Number of frames to retain
+     */
+    RenderStats(int capacity) {
+        frames = new Frame[capacity];
+        for (int i=0; i<capacity; i++) frames[i] = new Frame();
+    }
+    
+    /**
+     * Return the bean used to measure allocation, if available and enabled
+     */
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        try {
+            java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean)bean;
+                if (b.isThreadAllocatedMemorySupported() && b.isThreadAllocatedMemoryEnabled()) return b;
+            }
+        } catch (Throwable ex) {
+            // Allocation is not measurable on this JVM
+        }
+        return null;
+    }
+    
+    /**
+     * Return true if a running recording has frame events turned on.
+     * Flight Recorder stays initialized after its recordings end, so the event type itself is checked.
+     */
+    private static boolean frameEventEnabled() {
+        if (!jdk.jfr.FlightRecorder.isInitialized()) return false;
+        jdk.jfr.EventType type = frameEventType;
+        if (type == null) {
+            type = jdk.jfr.EventType.getEventType(RenderFrameEvent.class);
+            frameEventType = type;
+        }
+        return type.isEnabled();
+    }
+    
+    /**
+     * Return the bytes allocated so far by the current thread, or -1 if not measurable
+     */
+    private static long allocatedBytes() {
+        return (ALLOC_BEAN == null) ? -1 : ALLOC_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    
+    // -- Recording. Called on the thread that renders the Pad.
+    
+    /**
+     * Begin measuring a frame
+     * @param layerCount Number of Layers to be drawn
+     */
+    void beginFrame(int layerCount) {
+        // Flight Recorder events are only created while a recording is collecting them
+        if (frameEventEnabled()) {
+            event = new RenderFrameEvent();
+            event.begin();
+        }
+        frameAllocStart = allocatedBytes();
+        frameStart = System.nanoTime();
+        clearNanos = 0;
+        if (layerNanos.length != layerCount) layerNanos = new long[layerCount];
+        else Arrays.fill(layerNanos, 0);
+        shapesDrawn = 0;
+        shapesCulled = 0;
+    }
+    
+    /**
+     * Record the time spent clearing the background
+     */
+    void recordClear(long nanos) {
+        clearNanos = nanos;
+    }
+    
+    /**
+     * Record the time spent drawing a Layer and the Shapes it drew and culled
+     */
+    void recordLayer(int idx, long nanos, int drawn, int culled) {
+        layerNanos[idx] = nanos;
+        shapesDrawn += drawn;
+        shapesCulled += culled;
+    }
+    
+    /**
+     * Finish measuring a frame and add it to the ring buffer
+     */
+    void endFrame() {
+        long total = System.nanoTime() - frameStart;
+        long allocated = (frameAllocStart < 0) ? -1 : allocatedBytes() - frameAllocStart;
+        
+        long hitImageNanos;
+        long eventNanos;
+        synchronized (this) {
+            // Overwrite the oldest slot in place
+            Frame f = frames[next];
+            f.timestamp = System.currentTimeMillis();
+            f.totalNanos = total;
+            f.clearNanos = clearNanos;
+            if (f.layerNanos.length != layerNanos.length) f.layerNanos = new long[layerNanos.length];
+            System.arraycopy(layerNanos, 0, f.layerNanos, 0, layerNanos.length);
+            f.hitImageNanos = hitImageNanos = pendingHitImageNanos;
+            f.eventNanos = eventNanos = pendingEventNanos;
+            f.shapesDrawn = shapesDrawn;
+            f.shapesCulled = shapesCulled;
+            f.allocatedBytes = allocated;
+            pendingHitImageNanos = 0;
+            pendingEventNanos = 0;
+            
+            next = (next + 1) % frames.length;
+            if (count < frames.length) count++;
+            totalFrames++;
+        }
+        
+        // Emit a Flight Recorder event when recording
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.clearNanos = clearNanos;
+            long layers = 0;
+            for (long n : layerNanos) layers += n;
+            event.layerNanos = layers;
+            event.hitImageNanos = hitImageNanos;
+            event.eventNanos = eventNanos;
+            event.shapesDrawn = shapesDrawn;
+            event.shapesCulled = shapesCulled;
+            event.allocatedBytes = allocated;
+            event.commit();
+        }
+        event = null;
+    }
+    
+    /**
+     * Add time spent drawing the hit-detection image
+     */
+    synchronized void addHitImageNanos(long nanos) {
+        pendingHitImageNanos += nanos;
+    }
+    
+    /**
+     * Add time spent dispatching an event
+     */
+    synchronized void addEventNanos(long nanos) {
+        pendingEventNanos += nanos;
+    }
+    
+    // -- Queries
+    
+    /**
+     * Return copies of the retained frames, oldest first
+     * @return A List&lt;Frame&gt; of recent frames
+     */
+    public synchronized List<Frame> getFrames() {
+        List<Frame> list = new ArrayList<>(count);
+        int start = (next - count + frames.length) % frames.length;
+        for (int i=0; i<count; i++) list.add(frames[(start + i) % frames.length].copy());
+        return list;
+    }
+    
+    /**
+     * Return a copy of the most recent frame
+     * @return The last Frame rendered, or null if none
+     */
+    public synchronized Frame getLastFrame() {
+        if (count == 0) return null;
+        return frames[(next - 1 + frames.length) % frames.length].copy();
+    }
+    
+    /**
+     * Return the number of frames rendered since the Pad was created or the statistics were reset
+     * @return Total number of frames
+     */
+    public synchronized long getTotalFrames() {
+        return totalFrames;
+    }
+    
+    /**
+     * Return the maximum number of frames retained
+     * @return Ring buffer capacity
+     */
+    public int getCapacity() {
+        return frames.length;
+    }
+    
+    /**
+     * Discard all retained frames
+     */
+    public synchronized void reset() {
+        count = 0;
+        next = 0;
+        totalFrames = 0;
+        pendingHitImageNanos = 0;
+        pendingEventNanos = 0;
+    }
+}
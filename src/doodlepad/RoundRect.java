@@ -23,7 +23,6 @@
 package doodlepad;
 
 import java.awt.Graphics2D;
-import java.awt.BasicStroke;
 import java.awt.geom.Area;
 import java.awt.geom.RoundRectangle2D;
 import java.util.Random;
@@ -39,6 +38,11 @@ public class RoundRect extends Shape
     private double arcWidth = 0;
     private double arcHeight = 0;
     
+    /**
+     * Rounded rectangle last used to draw the RoundRect, replaced only when its geometry changes
+     */
+    private volatile RoundRectangle2D.Double roundRect = null;
+    
     /**
      * Constructor for the RoundRect object, a rounded rectangle.
      * @param   x           The x-coordinate of the upper left corner of the RoundRect object.
@@ -112,7 +116,7 @@ public class RoundRect extends Shape
     @Override
     public void draw(Graphics2D g)
     {
-        RoundRectangle2D.Double rect = new RoundRectangle2D.Double(x, y, width, height, arcWidth, arcHeight);
+        RoundRectangle2D.Double rect = getRoundRect();
         if (filled == true) {
             g.setColor(this.fillColor);
             g.fill( rect );
@@ -121,9 +125,7 @@ public class RoundRect extends Shape
         if (stroked == true && strokeWidth > 0.0) {
             g.setColor(this.strokeColor);
             
-            float _strokeWidth = (float)strokeWidth;
-            //if (selected) _strokeWidth = 2.0f*_strokeWidth;
-            g.setStroke( new BasicStroke(_strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
+            g.setStroke( getDrawStroke() );
             
             g.draw( rect );
         }
@@ -135,6 +137,29 @@ public class RoundRect extends Shape
         if (selected) drawSelRect(g);
     }
     
+    /**
+     * Return the rounded rectangle outlining the RoundRect, rebuilt only when its geometry changes
+     * @return The shared RoundRectangle2D, which must not be modified
+     */
+    private RoundRectangle2D.Double getRoundRect() {
+        RoundRectangle2D.Double r = roundRect;
+        if (r == null || r.x != x || r.y != y || r.width != width || r.height != height ||
+                r.arcwidth != arcWidth || r.archeight != arcHeight) {
+            r = new RoundRectangle2D.Double(x, y, width, height, arcWidth, arcHeight);
+            roundRect = r;
+        }
+        return r;
+    }
+    
+    /**
+     * Get the outline of the RoundRect object, which is its rounded rectangle
+     * @return A RoundRectangle2D object
+     */
+    @Override
+    java.awt.Shape getOutline() {
+        return getRoundRect();
+    }
+    
     /**
      * Get the Area object associated with this round rectangle.
      * @return The Area object.
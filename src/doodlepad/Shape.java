@@ -37,6 +37,11 @@ import java.awt.geom.Rectangle2D;
 
 /**
  * Abstract base class for all graphical shape objects
+ * <p>
+ * A subclass that assigns the protected x, y, width, height, strokeWidth or
+ * transform fields directly, rather than through a setter, must call repaint()
+ * afterwards. Besides scheduling a redraw, repaint() tells the Layer that the
+ * Shape's bounds may have changed so its spatial index entry is refreshed.
  * 
  * @author Mark F. Russo, Ph.D.
  * @version 1.1
@@ -138,19 +143,96 @@ public abstract class Shape
     protected boolean selectable = false;
     
     /**
-     * Initial mouse x-location when mouse pressed initiates dragging
+     * Boolean indicating if this shape can be dragged.
      */
-    private double dragDeltaX = 0.0;
-
+    protected boolean draggable = false;
+    
     /**
-     * Initial mouse y-location when mouse pressed initiates dragging
+     * Device-space bounds of this Shape as of the last time it was painted,
+     * or null if the Shape is not currently on the screen.
      */
-    private double dragDeltaY = 0.0;
+    Rectangle2D.Double paintedBounds = null;
     
     /**
-     * Boolean indicating if this shape can be dragged.
+     * Key used to identify this Shape in the Pad's hit-detection image, or -1 if not yet assigned.
      */
-    protected boolean draggable = false;
+    int hitKey = -1;
+    
+    /**
+     * Color that encodes hitKey, cached so that hit image redraws do not allocate
+     */
+    Color hitColor = null;
+    
+    /**
+     * Node of the Layer's spatial index holding this Shape, and the bounds it was indexed with
+     */
+    SpatialIndex.Node indexNode = null;
+    Rectangle2D.Double indexBounds = null;
+    
+    /**
+     * Position of this Shape in the Layer's display order. Larger values are drawn later.
+     */
+    long zOrder = 0;
+    
+    /**
+     * Neighbors of this Shape in the Layer's display list. 
+     * displayPrev is drawn just before this Shape and displayNext just after.
+     */
+    Shape displayPrev = null;
+    Shape displayNext = null;
+    
+    /**
+     * Incremented by repaint() whenever the Shape changes, which invalidates cached bounds
+     */
+    long boundsVersion = 0;
+    
+    /**
+     * Transform from Shape to Pad coordinates (the Layer transform composed with the Shape transform),
+     * the inverses of it and of the Shape transform alone, and the versions they were computed from
+     */
+    private final AffineTransform worldTransform = new AffineTransform();
+    private final AffineTransform worldInverse = new AffineTransform();
+    private final AffineTransform shapeInverse = new AffineTransform();
+    private NoninvertibleTransformException worldError = null;
+    private NoninvertibleTransformException shapeError = null;
+    private Layer worldLayer = null;
+    private long worldShapeVersion = -1;
+    private long worldLayerVersion = -1;
+    
+    /**
+     * Reusable point that receives event coordinates converted to the Shape coordinate system
+     */
+    private final Point2D.Double eventPoint = new Point2D.Double();
+    
+    /**
+     * Stroke, bounding rectangle and text layout last used to draw the Shape.
+     * Each is replaced only when the state it was built from changes, so steady-state redraws allocate nothing.
+     * Each object is never modified once published, so Shapes may be drawn from several threads at once.
+     */
+    private volatile BasicStroke drawStroke = null;
+    private volatile Rectangle2D.Double drawFrame = null;
+    private volatile CachedTextLayout drawLayout = null;
+    
+    /**
+     * Color and stroke of the selection rectangle
+     */
+    private static final Color SEL_COLOR = new Color(127, 127, 127, 64);
+    private static final BasicStroke SEL_STROKE = StrokeCache.get(2.0f);
+    
+    /**
+     * Bounds of the drawn Shape in device coordinates, and the Layer bounds and Layer transform they were computed from
+     */
+    private Rectangle2D.Double cachedDeviceBounds = null;
+    private Rectangle2D.Double deviceBoundsSource = null;
+    private Layer deviceBoundsLayer = null;
+    private long deviceBoundsLayerVersion = -1;
+    
+    /**
+     * Bounds of the drawn Shape in Layer coordinates, and the state they were computed from
+     */
+    private Rectangle2D.Double cachedLayerBounds = null;
+    private long cachedBoundsVersion = -1;
+    private double cachedX, cachedY, cachedWidth, cachedHeight, cachedStrokeWidth;
     
     // Removed traditional Java event handling method
 //    /**
@@ -215,13 +297,7 @@ public abstract class Shape
             if (layer == null) return;
             
             // Perform inverse transforms for the Shape coodinate system
-            Point2D.Double pt = new Point2D.Double(x, y);
-            try {
-                layer.transform.inverseTransform(pt, pt);
-                transform.inverseTransform(pt, pt); 
-            } catch (NoninvertibleTransformException ex) {
-                System.err.println(ex);
-            }
+            Point2D.Double pt = toShapeCoords(x, y);
             double eX = pt.getX();
             double eY = pt.getY();
             
@@ -251,13 +327,7 @@ public abstract class Shape
             stopDrag();
             
             // Perform inverse transforms for the Shape coodinate system
-            Point2D.Double pt = new Point2D.Double(x, y);
-            try {
-                layer.transform.inverseTransform(pt, pt);
-                transform.inverseTransform(pt, pt); 
-            } catch (NoninvertibleTransformException ex) {
-                System.err.println(ex);
-            }
+            Point2D.Double pt = toShapeCoords(x, y);
             double eX = pt.getX();
             double eY = pt.getY();
             
@@ -284,13 +354,7 @@ public abstract class Shape
             // If layer is null, the shape has been deleted and should not receive the event
             if (layer == null) return;
 
-            Point2D.Double pt = new Point2D.Double(x, y);
-            try {
-                layer.transform.inverseTransform(pt, pt);
-                transform.inverseTransform(pt, pt); 
-            } catch (NoninvertibleTransformException ex) {
-                System.err.println(ex);
-            }
+            Point2D.Double pt = toShapeCoords(x, y);
             double eX = pt.getX();
             double eY = pt.getY();
             
@@ -317,13 +381,7 @@ public abstract class Shape
             // If layer is null, the shape has been deleted and should not receive the event
             if (layer == null) return;
 
-            Point2D.Double pt = new Point2D.Double(x, y);
-            try {
-                layer.transform.inverseTransform(pt, pt);
-                transform.inverseTransform(pt, pt); 
-            } catch (NoninvertibleTransformException ex) {
-                System.err.println(ex);
-            }
+            Point2D.Double pt = toShapeCoords(x, y);
             double eX = pt.getX();
             double eY = pt.getY();
             
@@ -350,13 +408,7 @@ public abstract class Shape
             // If layer is null, the shape has been deleted and should not receive the event
             if (layer == null) return;
 
-            Point2D.Double pt = new Point2D.Double(x, y);
-            try {
-                layer.transform.inverseTransform(pt, pt);
-                transform.inverseTransform(pt, pt); 
-            } catch (NoninvertibleTransformException ex) {
-                System.err.println(ex);
-            }
+            Point2D.Double pt = toShapeCoords(x, y);
             double eX = pt.getX();
             double eY = pt.getY();
             
@@ -383,13 +435,7 @@ public abstract class Shape
             // If layer is null, the shape has been deleted and should not receive the event
             if (layer == null) return;
 
-            Point2D.Double pt = new Point2D.Double(x, y);
-            try {
-                layer.transform.inverseTransform(pt, pt);
-                transform.inverseTransform(pt, pt); 
-            } catch (NoninvertibleTransformException ex) {
-                System.err.println(ex);
-            }
+            Point2D.Double pt = toShapeCoords(x, y);
             double eX = pt.getX();
             double eY = pt.getY();
             
@@ -416,13 +462,7 @@ public abstract class Shape
             // If layer is null, the shape has been deleted and should not receive the event
             if (layer == null) return;
 
-            Point2D.Double pt = new Point2D.Double(x, y);
-            try {
-                layer.transform.inverseTransform(pt, pt);
-                transform.inverseTransform(pt, pt); 
-            } catch (NoninvertibleTransformException ex) {
-                System.err.println(ex);
-            }
+            Point2D.Double pt = toShapeCoords(x, y);
             double eX = pt.getX();
             double eY = pt.getY();
             
@@ -449,13 +489,7 @@ public abstract class Shape
             // If layer is null, the shape has been deleted and should not receive the event
             if (layer == null) return;
 
-            Point2D.Double pt = new Point2D.Double(x, y);
-            try {
-                layer.transform.inverseTransform(pt, pt);
-                transform.inverseTransform(pt, pt); 
-            } catch (NoninvertibleTransformException ex) {
-                System.err.println(ex);
-            }
+            Point2D.Double pt = toShapeCoords(x, y);
             double eX = pt.getX();
             double eY = pt.getY();
             
@@ -930,13 +964,7 @@ public abstract class Shape
      * @param p The point indicating window coordinates
      */
     public void setWindowLocation(Point p) {
-        Point2D.Double pt = new Point2D.Double(p.getX(), p.getY());
-        try {
-            layer.transform.inverseTransform(pt, pt);
-            transform.inverseTransform(pt, pt);
-        } catch (NoninvertibleTransformException ex) {
-            System.err.println(ex);
-        }
+        Point2D.Double pt = toShapeCoords(p.getX(), p.getY());
         setLocation(new Point(pt.getX(), pt.getY()));
     }
     
@@ -1108,6 +1136,7 @@ public abstract class Shape
      */
     public void setEventsEnabled(boolean enabled) {
         eventsEnabled = enabled;
+        repaint();
     }
     
     /**
@@ -1144,6 +1173,7 @@ public abstract class Shape
         if (selectable == false) return;    // Do nothing if the shape cannot be selected
         if (selected == sel) return;        // Do nothing if selected state has not changed
         selected = sel;                     // Set the selected value
+        if (layer != null) layer.selectionChanged(this, sel);
         
         onSelectionChanged(sel);            // Invoke overridable method
         //if (sel == true) toFront();         // Bring to front if set to selected
@@ -1193,23 +1223,6 @@ public abstract class Shape
         return draggable;
     }
     
-    /**
-     * Start dragging this shape
-     */
-    void startDrag(double x, double y) {
-        // Coordinates are provided in the Pad coordinate system
-        // Convert to Shape coordinate system and save
-        Point2D.Double pt = new Point2D.Double(x, y);
-        try {
-            layer.transform.inverseTransform(pt, pt);
-            transform.inverseTransform(pt, pt);
-        } catch (NoninvertibleTransformException ex) {
-            System.err.println(ex);
-        }
-        dragDeltaX = this.x - pt.x;
-        dragDeltaY = this.y - pt.y;
-    }
-    
     /**
      * Stop the dragging process
      */
@@ -1217,28 +1230,6 @@ public abstract class Shape
         // Anything here?
     }
     
-    /**
-     * Move the Shape to an offset from the initial drag start position of dX, dY
-     * @param dX Change in horizontal distance during dragging
-     * @param dY Change in vertical distance during dragging
-     */
-    void doDrag(double x, double y) {
-        // Coordinates are provided in the pad coordinate system
-        // Convert to Shape coordinate system
-        // A Shape can be dragged only if it is draggable and selected
-        if (selected && draggable) {
-            Point2D.Double pt = new Point2D.Double(x, y);
-            try {
-                layer.transform.inverseTransform(pt, pt);
-                transform.inverseTransform(pt, pt);
-            } catch (NoninvertibleTransformException ex) {
-                System.err.println(ex);
-            }
-
-            setLocation(pt.x + dragDeltaX, pt.y + dragDeltaY);
-        }
-    }
-    
     /**
      * Move this shape to the end of the draw list
      */
@@ -1291,6 +1282,31 @@ public abstract class Shape
         return new Area( new java.awt.geom.Rectangle2D.Double(x, y, width, height));
     }
     
+    /**
+     * Get the outline that is filled and stroked when the Shape is drawn, in the Shape's coordinate system.
+     * Override in subclasses whose drawn outline differs from getArea().
+     * @return The outline of the drawn Shape
+     */
+    java.awt.Shape getOutline() {
+        return getArea();
+    }
+    
+    /**
+     * Determine if a point lands on the drawn Shape, taking fill and stroke into account.
+     * Matches the region drawn on the hit-detection image by draw(Graphics2D, Color).
+     * @param x x-coordinate of the point in the Shape's coordinate system
+     * @param y y-coordinate of the point in the Shape's coordinate system
+     * @return true if the point lands on the filled or stroked Shape
+     */
+    boolean hits(double x, double y) {
+        java.awt.Shape outline = getOutline();
+        if (filled && outline.contains(x, y)) return true;
+        if (stroked && strokeWidth > 0.0) {
+            return getDrawStroke().createStrokedShape(outline).contains(x, y);
+        }
+        return false;
+    }
+    
     /**
      * Return the Layer on which this Shape exists
      * @return Layer holding this Shape
@@ -1312,10 +1328,156 @@ public abstract class Shape
     }
     
     /**
-     * Utility method to trigger a repaint of the entire Pad.
+     * Utility method to trigger a repaint of the region of the Pad covered by this Shape,
+     * both where it was last painted and where it is now.
      */
     protected void repaint() {
-        if (layer != null) layer.repaint();
+        boundsVersion++;
+        if (layer != null) layer.repaint(this);
+    }
+    
+    /**
+     * Get the rectangle, in the Shape's own coordinate system, that encloses everything
+     * drawn by the draw() method, including the stroke and selection rectangle.
+     * Override in subclasses that draw outside of their x, y, width and height.
+     * @return Rectangle2D enclosing the drawn Shape
+     */
+    protected Rectangle2D.Double getDrawBounds() {
+        // Allow for half the stroke, the selection rectangle and antialiasing
+        double pad = Math.max(0.5*strokeWidth, 1.0) + 1.0;
+        double x0 = Math.min(x, x + width);
+        double y0 = Math.min(y, y + height);
+        return new Rectangle2D.Double(x0 - pad, y0 - pad, Math.abs(width) + 2.0*pad, Math.abs(height) + 2.0*pad);
+    }
+    
+    /**
+     * Get the bounds of the drawn Shape in device (window) coordinates, 
+     * after applying both the Shape and the Layer transforms.
+     * The returned rectangle may be shared and must not be modified.
+     * @return Rectangle2D enclosing the drawn Shape in device coordinates
+     */
+    Rectangle2D.Double getDeviceBounds() {
+        Rectangle2D.Double rect = getLayerBounds();
+        Layer lay = layer;
+        if (lay == null) return rect;
+        
+        // Reuse the last result while the Layer bounds and the Layer transform are unchanged
+        Rectangle2D.Double b = cachedDeviceBounds;
+        if (b == null || deviceBoundsSource != rect || deviceBoundsLayer != lay || deviceBoundsLayerVersion != lay.transformVersion) {
+            deviceBoundsSource = rect;
+            deviceBoundsLayer = lay;
+            deviceBoundsLayerVersion = lay.transformVersion;
+            b = transformBounds(lay.transform, rect);
+            cachedDeviceBounds = b;
+        }
+        return b;
+    }
+    
+    /**
+     * Bring the cached world transform and inverses up to date with the Shape and Layer transforms
+     */
+    private void updateWorldTransform() {
+        Layer lay = layer;
+        long layerVersion = (lay == null) ? -1 : lay.transformVersion;
+        if (worldLayer == lay && worldShapeVersion == boundsVersion && worldLayerVersion == layerVersion) return;
+        
+        worldLayer = lay;
+        worldShapeVersion = boundsVersion;
+        worldLayerVersion = layerVersion;
+        
+        shapeError = null;
+        try {
+            shapeInverse.setTransform(transform);
+            shapeInverse.invert();
+        } catch (NoninvertibleTransformException ex) {
+            shapeError = ex;
+        }
+        
+        if (lay == null) worldTransform.setToIdentity(); else worldTransform.setTransform(lay.transform);
+        worldTransform.concatenate(transform);
+        worldError = null;
+        try {
+            worldInverse.setTransform(worldTransform);
+            worldInverse.invert();
+        } catch (NoninvertibleTransformException ex) {
+            worldError = ex;
+        }
+    }
+    
+    /**
+     * Return the transform from Shape coordinates to Pad coordinates, 
+     * which is the Layer transform composed with the Shape transform.
+     * The transform is cached until the Shape or its Layer transform changes and must not be modified.
+     * @return The composed world transform
+     */
+    AffineTransform getWorldTransform() {
+        updateWorldTransform();
+        return worldTransform;
+    }
+    
+    /**
+     * Convert a point in Pad coordinates to Shape coordinates using the cached inverse world transform.
+     * The returned point is reused by later calls and is only valid until the next conversion.
+     * @param x x-coordinate in Pad coordinates
+     * @param y y-coordinate in Pad coordinates
+     * @return The point in Shape coordinates
+     */
+    Point2D.Double toShapeCoords(double x, double y) {
+        updateWorldTransform();
+        eventPoint.setLocation(x, y);
+        if (worldError != null) {
+            System.err.println(worldError);
+        } else {
+            worldInverse.transform(eventPoint, eventPoint);
+        }
+        return eventPoint;
+    }
+    
+    /**
+     * Convert a point in Layer coordinates to Shape coordinates using the cached inverse Shape transform
+     * @param x     x-coordinate in Layer coordinates
+     * @param y     y-coordinate in Layer coordinates
+     * @param out   Receives the point in Shape coordinates
+     * @return true if the Shape transform is invertible, false if out was not set
+     */
+    boolean fromLayerCoords(double x, double y, Point2D.Double out) {
+        updateWorldTransform();
+        if (shapeError != null) return false;
+        out.setLocation(x, y);
+        shapeInverse.transform(out, out);
+        return true;
+    }
+    
+    /**
+     * Get the bounds of the drawn Shape in the coordinate system of its Layer,
+     * after applying the Shape transform.
+     * The bounds are cached until the Shape is repainted or its position, size or stroke changes.
+     * The returned rectangle is shared and must not be modified.
+     * @return Rectangle2D enclosing the drawn Shape in Layer coordinates
+     */
+    Rectangle2D.Double getLayerBounds() {
+        Rectangle2D.Double b = cachedLayerBounds;
+        if (b == null || cachedBoundsVersion != boundsVersion || cachedX != x || cachedY != y
+                || cachedWidth != width || cachedHeight != height || cachedStrokeWidth != strokeWidth) {
+            cachedBoundsVersion = boundsVersion;
+            cachedX = x;
+            cachedY = y;
+            cachedWidth = width;
+            cachedHeight = height;
+            cachedStrokeWidth = strokeWidth;
+            b = transformBounds(transform, getDrawBounds());
+            cachedLayerBounds = b;
+        }
+        return b;
+    }
+    
+    /**
+     * Utility method that returns the bounding box of a transformed rectangle
+     */
+    static Rectangle2D.Double transformBounds(AffineTransform at, Rectangle2D.Double rect) {
+        if (at.isIdentity()) return rect;
+        Rectangle2D b = at.createTransformedShape(rect).getBounds2D();
+        return new Rectangle2D.Double(b.getX(), b.getY(), b.getWidth(), b.getHeight());
     }
     
     /**
@@ -1641,10 +1803,87 @@ public abstract class Shape
      * Draw a selection rectangle around the shape
      */
     void drawSelRect(Graphics2D g) {
-        Rectangle2D.Double rect = new Rectangle2D.Double(x, y, width, height);
-        g.setColor(new Color(127, 127, 127, 64));
-        g.setStroke( new BasicStroke(2.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
-        g.draw( rect );
+        g.setColor(SEL_COLOR);
+        g.setStroke(SEL_STROKE);
+        g.draw( getDrawFrame() );
+    }
+    
+    /**
+     * Return the shared stroke for the current stroke width
+     * @return A BasicStroke with round caps and joins
+     */
+    BasicStroke getDrawStroke() {
+        float w = (float)strokeWidth;
+        BasicStroke stroke = drawStroke;
+        if (stroke == null || stroke.getLineWidth() != w) {
+            stroke = StrokeCache.get(w);
+            drawStroke = stroke;
+        }
+        return stroke;
+    }
+    
+    /**
+     * Return a rectangle at the Shape's location with its width and height, rebuilt only when they change.
+     * The rectangle is shared and must not be modified.
+     * @return The bounding rectangle of the Shape
+     */
+    Rectangle2D.Double getDrawFrame() {
+        Rectangle2D.Double r = drawFrame;
+        if (r == null || r.x != x || r.y != y || r.width != width || r.height != height) {
+            r = new Rectangle2D.Double(x, y, width, height);
+            drawFrame = r;
+        }
+        return r;
+    }
+    
+    /**
+     * Return a TextLayout for a string, reusing the last one if the string, font and render context are unchanged
+     * @param str   The string to lay out
+     * @param fnt   The font with which to lay out the string
+     * @param frc   The FontRenderContext of the Graphics2D on which the string is drawn
+     * @return The TextLayout with its bounds
+     */
+    CachedTextLayout getTextLayout(String str, Font fnt, FontRenderContext frc) {
+        CachedTextLayout c = drawLayout;
+        if (c == null || !c.text.equals(str) || !c.font.equals(fnt) || !c.frc.equals(frc)) {
+            c = new CachedTextLayout(str, fnt, frc);
+            drawLayout = c;
+        }
+        return c;
+    }
+    
+    /**
+     * A TextLayout together with the string, font and render context it was built from,
+     * its bounds, and its outline once requested
+     */
+    static final class CachedTextLayout {
+        final String text;
+        final Font font;
+        final FontRenderContext frc;
+        final TextLayout layout;
+        final Rectangle2D bounds;
+        
+        CachedTextLayout(String text, Font font, FontRenderContext frc) {
+            this.text = text;
+            this.font = font;
+            this.frc = frc;
+            this.layout = new TextLayout(text, font, frc);
+            this.bounds = layout.getBounds();
+        }
+        
+        private volatile java.awt.Shape outline = null;
+        
+        /**
+         * Return the outline of the text with its baseline origin at (0, 0)
+         */
+        java.awt.Shape getOutline() {
+            java.awt.Shape o = outline;
+            if (o == null) {
+                o = layout.getOutline(null);
+                outline = o;
+            }
+            return o;
+        }
     }
     
     /**
@@ -1659,10 +1898,11 @@ public abstract class Shape
         if (this.text.isEmpty()) return;
         
         FontRenderContext frc = g.getFontRenderContext();
-        TextLayout tl = new TextLayout(this.text, font, frc);
+        CachedTextLayout ctl = getTextLayout(this.text, font, frc);
+        TextLayout tl = ctl.layout;
 
         // Stash the size and offset of the rendered text
-        Rectangle2D bounds = tl.getBounds();
+        Rectangle2D bounds = ctl.bounds;
         double width  = bounds.getWidth();
         double height = bounds.getHeight();
         // double offX   = bounds.getX();
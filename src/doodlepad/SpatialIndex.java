@@ -0,0 +1,309 @@
+/*
+ * SpatialIndex.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package doodlepad;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A loose quadtree of Shape bounding boxes used by a Layer to find Shapes
+ * at a point or within a region without visiting every Shape.
+ * Each node accepts Shapes whose bounds fit within the node expanded by half its size on every side,
+ * so a Shape is stored in a node about as large as itself even when it straddles a quadrant boundary.
+ * The root grows as needed to hold Shapes anywhere in the plane.
+ *
+ * @author Mark F. Russo, Ph.D.
+ * @version 1.0
+ */
+final class SpatialIndex
+{
+    /**
+     * Number of Shapes a leaf node may hold before it is split into quadrants
+     */
+    private static final int SPLIT_THRESHOLD = 8;
+
+    /**
+     * Nodes smaller than this size are never split
+     */
+    private static final double MIN_NODE_SIZE = 16.0;
+
+    /**
+     * Size of the initial root node
+     */
+    private static final double INITIAL_SIZE = 1024.0;
+
+    /**
+     * A square region of the quadtree
+     */
+    static final class Node
+    {
+        final double x, y, size;
+        Node parent = null;
+        Node[] children = null;
+        final ArrayList<Shape> items = new ArrayList<>();
+
+        Node(double x, double y, double size) {
+            this.x = x;
+            this.y = y;
+            this.size = size;
+        }
+
+        /**
+         * Determine if bounds fit within the loose region of this node
+         */
+        boolean contains(Rectangle2D r) {
+            double m = 0.5*size;
+            return r.getMinX() >= x - m && r.getMinY() >= y - m && r.getMaxX() <= x + size + m && r.getMaxY() <= y + size + m;
+        }
+
+        /**
+         * Determine if bounds overlap the loose region of this node
+         */
+        boolean intersects(Rectangle2D r) {
+            double m = 0.5*size;
+            return r.getMaxX() >= x - m && r.getMaxY() >= y - m && r.getMinX() <= x + size + m && r.getMinY() <= y + size + m;
+        }
+    }
+
+    /**
+     * The root node of the quadtree
+     */
+    private Node root = new Node(0.0, 0.0, INITIAL_SIZE);
+
+    /**
+     * Shapes with bounds that cannot be placed in the tree, such as infinite or NaN bounds
+     */
+    private final Node unbounded = new Node(0.0, 0.0, 0.0);
+
+    /**
+     * Number of Shapes in the index
+     */
+    private int count = 0;
+
+    /**
+     * Return the number of Shapes in the index
+     * @return Number of indexed Shapes
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Add a Shape to the index or move it if its bounds have changed
+     * @param s         The Shape to index
+     * @param bounds    The bounds of the Shape in Layer coordinates
+     */
+    void update(Shape s, Rectangle2D.Double bounds) {
+        if (s.indexNode != null) {
+            // Nothing to do if the bounds have not changed
+            if (bounds.equals(s.indexBounds)) return;
+
+            // Stay in the current node if the bounds still fit and no child would take them
+            Node node = s.indexNode;
+            s.indexBounds = bounds;
+            if (node != unbounded && node.contains(bounds) && !fitsInChild(node, bounds)) return;
+
+            remove(s);
+        }
+        insert(s, bounds);
+    }
+
+    /**
+     * Remove a Shape from the index
+     * @param s The Shape to remove
+     */
+    void remove(Shape s) {
+        Node node = s.indexNode;
+        if (node == null) return;
+
+        node.items.remove(s);
+        s.indexNode = null;
+        s.indexBounds = null;
+        count--;
+        prune(node);
+    }
+
+    /**
+     * Remove all Shapes from the index
+     * @param shapes All Shapes currently indexed
+     */
+    void clear(List<Shape> shapes) {
+        for (Shape s : shapes) {
+            s.indexNode = null;
+            s.indexBounds = null;
+        }
+        root = new Node(0.0, 0.0, INITIAL_SIZE);
+        unbounded.items.clear();
+        count = 0;
+    }
+
+    /**
+     * Collect all Shapes with bounds that intersect the given rectangle
+     * @param r     The region to query in Layer coordinates
+     * @param out   The List to which matching Shapes are added
+     */
+    void query(Rectangle2D r, List<Shape> out) {
+        query(root, r, out);
+        for (Shape s : unbounded.items) out.add(s);
+    }
+
+    /**
+     * Recursive helper for query
+     */
+    private void query(Node node, Rectangle2D r, List<Shape> out) {
+        if (!node.intersects(r)) return;
+
+        for (int i=0; i<node.items.size(); i++) {
+            Shape s = node.items.get(i);
+            Rectangle2D.Double b = s.indexBounds;
+            if (b.getMaxX() >= r.getMinX() && b.getMaxY() >= r.getMinY()
+             && b.getMinX() <= r.getMaxX() && b.getMinY() <= r.getMaxY()) {
+                out.add(s);
+            }
+        }
+
+        if (node.children != null) {
+            for (Node child : node.children) query(child, r, out);
+        }
+    }
+
+    /**
+     * Insert a Shape that is not currently in the index
+     */
+    private void insert(Shape s, Rectangle2D.Double bounds) {
+        s.indexBounds = bounds;
+        count++;
+
+        // Shapes with unusable bounds are always returned by queries
+        if (!isFinite(bounds)) {
+            unbounded.items.add(s);
+            s.indexNode = unbounded;
+            return;
+        }
+
+        grow(bounds);
+
+        // Descend to the smallest node that fully contains the bounds
+        Node node = root;
+        while (true) {
+            if (node.children == null) {
+                if (node.items.size() < SPLIT_THRESHOLD || node.size <= MIN_NODE_SIZE) break;
+                split(node);
+            }
+            Node child = childContaining(node, bounds);
+            if (child == null) break;
+            node = child;
+        }
+
+        node.items.add(s);
+        s.indexNode = node;
+    }
+
+    /**
+     * Grow the root until it contains the given bounds
+     */
+    private void grow(Rectangle2D r) {
+        while (!root.contains(r)) {
+            // Expand toward the bounds, keeping the old root as one quadrant
+            double half = root.size;
+            double nx = (r.getMinX() < root.x) ? root.x - half : root.x;
+            double ny = (r.getMinY() < root.y) ? root.y - half : root.y;
+            Node newRoot = new Node(nx, ny, 2.0*half);
+            newRoot.children = new Node[4];
+            for (int q=0; q<4; q++) {
+                double cx = nx + (q % 2)*half;
+                double cy = ny + (q / 2)*half;
+                Node child = (cx == root.x && cy == root.y) ? root : new Node(cx, cy, half);
+                child.parent = newRoot;
+                newRoot.children[q] = child;
+            }
+            root = newRoot;
+        }
+    }
+
+    /**
+     * Split a leaf node into four quadrants and push down the Shapes that fit in one
+     */
+    private void split(Node node) {
+        double half = 0.5*node.size;
+        node.children = new Node[4];
+        for (int q=0; q<4; q++) {
+            Node child = new Node(node.x + (q % 2)*half, node.y + (q / 2)*half, half);
+            child.parent = node;
+            node.children[q] = child;
+        }
+
+        ArrayList<Shape> items = new ArrayList<>(node.items);
+        node.items.clear();
+        for (Shape s : items) {
+            Node child = childContaining(node, s.indexBounds);
+            if (child == null) child = node;
+            child.items.add(s);
+            s.indexNode = child;
+        }
+    }
+
+    /**
+     * Collapse child nodes that no longer hold any Shapes
+     */
+    private void prune(Node node) {
+        while (node != null && node != unbounded) {
+            if (node.children != null) {
+                for (Node child : node.children) {
+                    if (child.children != null || !child.items.isEmpty()) return;
+                }
+                node.children = null;
+            }
+            if (!node.items.isEmpty()) return;
+            node = node.parent;
+        }
+    }
+
+    /**
+     * Return the child of a node that fully contains the bounds, or null if none does.
+     * Only the child holding the center of the bounds is considered.
+     */
+    private Node childContaining(Node node, Rectangle2D r) {
+        if (node.children == null) return null;
+        double half = 0.5*node.size;
+        int q = (r.getCenterX() >= node.x + half ? 1 : 0) + (r.getCenterY() >= node.y + half ? 2 : 0);
+        Node child = node.children[q];
+        return child.contains(r) ? child : null;
+    }
+
+    /**
+     * Determine if a Shape with the given bounds would be stored deeper than the node
+     */
+    private boolean fitsInChild(Node node, Rectangle2D r) {
+        return childContaining(node, r) != null;
+    }
+
+    /**
+     * Determine if all coordinates of a rectangle are finite
+     */
+    private static boolean isFinite(Rectangle2D r) {
+        return Double.isFinite(r.getX()) && Double.isFinite(r.getY())
+            && Double.isFinite(r.getWidth()) && Double.isFinite(r.getHeight());
+    }
+}
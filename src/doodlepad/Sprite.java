@@ -23,7 +23,6 @@
 package doodlepad;
 
 import java.awt.Graphics2D;
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.io.File;
 import java.awt.image.BufferedImage;
@@ -46,6 +45,11 @@ public class Sprite extends Shape {
     private double targetWidth;
     private double targetHeight;
     
+    /**
+     * Rectangle filled in place of the frame image, replaced only when its location or target size changes
+     */
+    private volatile Rectangle2D.Double targetRect = null;
+    
     /**
      * Constructor for objects of class Sprite
      * @param   path        Path to sprite sheet image file.
@@ -203,7 +207,12 @@ public class Sprite extends Shape {
         
         if (filled == true) {
             g.setColor(this.fillColor);
-            g.fill( new Rectangle2D.Double(x, y, targetWidth, targetHeight));
+            Rectangle2D.Double r = targetRect;
+            if (r == null || r.x != x || r.y != y || r.width != targetWidth || r.height != targetHeight) {
+                r = new Rectangle2D.Double(x, y, targetWidth, targetHeight);
+                targetRect = r;
+            }
+            g.fill( r );
         } else {
             g.drawImage(img, ix, iy, ix+tw, iy+th, frameNum*ifw, 0, (frameNum+1)*ifw, ih, null);
         }
@@ -211,16 +220,25 @@ public class Sprite extends Shape {
         if (stroked == true && strokeWidth > 0.0) {
             g.setColor(this.strokeColor);
             
-            float _strokeWidth = (float)strokeWidth;
-            //if (selected) _strokeWidth = 2.0f*_strokeWidth;
-            g.setStroke( new BasicStroke(_strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
+            g.setStroke( getDrawStroke() );
             
-            g.draw(new Rectangle2D.Double(x, y, width, height));
+            g.draw( getDrawFrame() );
         }
         
         if (selected) drawSelRect(g);
     }
     
+    /**
+     * Determine if a point lands on the current sprite frame
+     * @param x x-coordinate of the point
+     * @param y y-coordinate of the point
+     * @return true if the point is inside the sprite frame
+     */
+    @Override
+    boolean hits(double x, double y) {
+        return new Rectangle2D.Double(this.x, this.y, frameWidth, height).contains(x, y);
+    }
+    
     /**
      * Draw the region that will be used to detect a hit on the sprite
      * @param g The Graphics2D on which to draw the hit region
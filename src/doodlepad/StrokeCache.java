@@ -0,0 +1,75 @@
+/*
+ * StrokeCache.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package doodlepad;
+
+import java.awt.BasicStroke;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared cache of BasicStroke objects keyed by width, cap and join.
+ * BasicStroke is immutable, so one instance serves every Shape drawn with the same settings
+ * and drawing never needs to allocate a new stroke.
+ *
+ * @author Mark F. Russo, Ph.D.
+ * @version 1.0
+ */
+final class StrokeCache
+{
+    /**
+     * Largest number of strokes held. The cache is emptied when it fills,
+     * so animating a stroke width cannot grow it without bound.
+     */
+    private static final int MAX_STROKES = 256;
+
+    private static final ConcurrentHashMap<Long, BasicStroke> strokes = new ConcurrentHashMap<>();
+
+    private StrokeCache() {}
+
+    /**
+     * Return the shared stroke with the given settings, creating it if needed
+     * @param width     The stroke width
+     * @param cap       The BasicStroke cap style constant
+     * @param join      The BasicStroke join style constant
+     * @return The shared BasicStroke
+     */
+    static BasicStroke get(float width, int cap, int join) {
+        Long key = ((long)Float.floatToIntBits(width) << 32) | (cap << 16) | join;
+        BasicStroke stroke = strokes.get(key);
+        if (stroke == null) {
+            if (strokes.size() >= MAX_STROKES) strokes.clear();
+            stroke = new BasicStroke(width, cap, join);
+            BasicStroke prev = strokes.putIfAbsent(key, stroke);
+            if (prev != null) stroke = prev;
+        }
+        return stroke;
+    }
+
+    /**
+     * Return the shared round-capped, round-joined stroke of the given width, as used to draw Shapes
+     * @param width     The stroke width
+     * @return The shared BasicStroke
+     */
+    static BasicStroke get(float width) {
+        return get(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    }
+}
@@ -22,15 +22,13 @@
 
 package doodlepad;
 
-import java.awt.BasicStroke;
 import java.awt.Graphics2D;
 import java.awt.Font;
-import java.awt.FontMetrics;
 import java.awt.Color;
+import java.awt.RenderingHints;
 import java.awt.geom.Rectangle2D;
 import java.awt.font.TextLayout;
 import java.awt.font.FontRenderContext;
-import java.awt.geom.AffineTransform;
 import java.util.Random;
 import javax.swing.UIManager;
 
@@ -48,6 +46,12 @@ public class Text extends Shape
     private double offX;    // Offset of text in TextLayout
     private double offY;
     
+    /**
+     * Render context used to measure text. Text is measured and drawn with fractional metrics, 
+     * so glyph advances, and with them the measured width, do not depend on the device scale.
+     */
+    private static final FontRenderContext MEASURE_FRC = new FontRenderContext(null, true, true);
+    
     /**
      * Text object constructor
      * @param text      The String drawn as the Text object
@@ -62,9 +66,7 @@ public class Text extends Shape
         super(x, y, 0, 0, layer);
         this.text = text;
         font = new Font(fontName, style, size);
-        FontMetrics fm = layer.getPad().getFontMetrics(font);
-        width = fm.stringWidth(text);
-        height = fm.getHeight();
+        measure();
         
         // Default Text to no stroke and black fill
         this.strokeWidth = 0.0;
@@ -189,9 +191,7 @@ public class Text extends Shape
         super(x, y, 0, 0, layer);
         this.text = text;
         this.font = UIManager.getDefaults().getFont("TabbedPane.font");
-        FontMetrics fm = layer.getPad().getFontMetrics(this.font);
-        width = fm.stringWidth(text);
-        height = fm.getHeight();
+        measure();
         
         // Default Text to no stroke and black fill
         this.strokeWidth = 0.0;
@@ -212,6 +212,28 @@ public class Text extends Shape
         this.setDraggable(true);
     }
     
+    /**
+     * Measure the rendered text and store its size and its offset within the TextLayout.
+     * Called whenever the text or font changes, before the Text is repainted, so that 
+     * the region repainted and the bounds used for culling always match the new text.
+     * No window is required, so Text on an OffscreenPad is measured the same way.
+     */
+    private void measure() {
+        if (text == null || text.isEmpty()) {
+            width  = 0.0;
+            height = font.getLineMetrics("", MEASURE_FRC).getHeight();
+            offX   = 0.0;
+            offY   = 0.0;
+            return;
+        }
+        
+        Rectangle2D bounds = new TextLayout(text, font, MEASURE_FRC).getBounds();
+        width  = bounds.getWidth();
+        height = bounds.getHeight();
+        offX   = bounds.getX();
+        offY   = bounds.getY();
+    }
+    
     /**
      * Generate a representation of the Text object.
      * @return String representation
@@ -227,6 +249,7 @@ public class Text extends Shape
      */
     public void setText(String text) {
         this.text = text;
+        measure();
         this.repaint();
     }
     
@@ -247,9 +270,7 @@ public class Text extends Shape
             int fontStyle  = font.getStyle();
             int fontSize = font.getSize();
             font = new Font(fontFamily, fontStyle, fontSize);
-            FontMetrics fm = layer.getPad().getFontMetrics(font);
-            width = fm.stringWidth(text);
-            height = fm.getHeight();
+            measure();
             this.repaint();
         } catch (RuntimeException e) {
             System.out.println(e.getMessage());
@@ -273,9 +294,7 @@ public class Text extends Shape
             String fontFamily = font.getFamily();
             int fontSize = font.getSize();
             font = new Font(fontFamily, fontStyle, fontSize);
-            FontMetrics fm = layer.getPad().getFontMetrics(font);
-            width = fm.stringWidth(text);
-            height = fm.getHeight();
+            measure();
             this.repaint();
         } catch (RuntimeException e) {
             System.out.println(e.getMessage());
@@ -299,9 +318,7 @@ public class Text extends Shape
             String fontFamily  = font.getFamily();
             int fontStyle = font.getStyle();
             font = new Font(fontFamily, fontStyle, fontSize);
-            FontMetrics fm = layer.getPad().getFontMetrics(font);
-            width = fm.stringWidth(text);
-            height = fm.getHeight();
+            measure();
             this.repaint();
         } catch (RuntimeException e) {
             System.out.println(e.getMessage());
@@ -316,6 +333,21 @@ public class Text extends Shape
         return font.getSize();
     }
 
+    /**
+     * Get the rectangle that encloses the rendered text, which is drawn
+     * with its baseline at the bottom of the bounding box and may extend below it.
+     * @return Rectangle2D enclosing the drawn Text object
+     */
+    @Override
+    protected Rectangle2D.Double getDrawBounds() {
+        Rectangle2D.Double rect = super.getDrawBounds();
+        
+        // Allow for half the stroke and antialiasing around the glyphs, as around the bounding box
+        double pad = Math.max(0.5*strokeWidth, 1.0) + 1.0;
+        rect.add(new Rectangle2D.Double(x + offX - pad, y + height + offY - pad, width + 2.0*pad, height + 2.0*pad));
+        return rect;
+    }
+
     /**
      * Draw the Text object
      * @param g         The Graphics2D object on which to draw the text object
@@ -326,15 +358,14 @@ public class Text extends Shape
         if (stroked == false && filled == false) return;
         if (this.text.isEmpty()) return;
         
+        // Size and offset were measured when the text or font last changed.
+        // Drawing only reads them, so Shapes may be drawn on several threads at once.
+        // Fractional metrics keep the drawn text the width it was measured at, at any scale.
+        Object metrics = g.getRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS);
+        g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
         FontRenderContext frc = g.getFontRenderContext();
-        TextLayout tl = new TextLayout(this.text, font, frc);
-
-        // Stash the size and offset of the rendered text
-        Rectangle2D bounds = tl.getBounds();
-        width  = bounds.getWidth();
-        height = bounds.getHeight();
-        offX   = bounds.getX();
-        offY   = bounds.getY();
+        CachedTextLayout ctl = getTextLayout(this.text, font, frc);
+        TextLayout tl = ctl.layout;
         
         // Fill the text
         if (filled == true) {
@@ -345,19 +376,30 @@ public class Text extends Shape
         // Stroke the text
         if (stroked == true && strokeWidth > 0.0) {
             g.setColor( strokeColor );
-            float _strokeWidth = (float)strokeWidth;
-            g.setStroke( new BasicStroke(_strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND) );
+            g.setStroke( getDrawStroke() );
 
-            //AffineTransform tx = new AffineTransform();
-            //tx.translate(x, y+height);
-            AffineTransform tx = new AffineTransform(1.0, 0.0, 0.0, 1.0, x, y+height);
-            g.draw(tl.getOutline(tx));
+            // Draw the cached outline translated to the text origin
+            g.translate(x, y+height);
+            g.draw(ctl.getOutline());
+            g.translate(-x, -(y+height));
         }
+        if (metrics != null) g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, metrics);
         
         // Draw select rect
         if (selected) drawSelRect(g);
     }
     
+    /**
+     * Determine if a point lands on the bounding box of the rendered text
+     * @param x x-coordinate of the point
+     * @param y y-coordinate of the point
+     * @return true if the point is inside the rendered text bounds
+     */
+    @Override
+    boolean hits(double x, double y) {
+        return stroked && new Rectangle2D.Double(this.x+offX, this.y+offY+height, width, height).contains(x, y);
+    }
+    
     /**
      * Draw the region that will be used to detect a hit on the shape as the bounding box.
      * Take into account the offset of the text in the TextLayout.
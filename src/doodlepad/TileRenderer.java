@@ -0,0 +1,330 @@
+/*
+ * TileRenderer.java
+ *
+ * Author: Mark F. Russo, Ph.D.
+ * Copyright (c) 2012-2024 Mark F. Russo
+ *
+ * This file is part of DoodlePad
+ *
+ * DoodlePad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DoodlePad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DoodlePad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package doodlepad;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Draws Layers by splitting the drawing surface into square tiles that are rendered in parallel.
+ * Each visible Shape is first assigned to every tile its device bounds overlap.
+ * Tiles are then rendered on a ForkJoinPool, each into its own image clipped to the tile,
+ * and finally the tile images are composited onto the target in order.
+ * Tiles are square in Pad coordinates, and their images are rasterized at the target's device scale,
+ * so tiles stay sharp on high-resolution displays.
+ * Layers that cannot be split into tiles, such as cached Layers and ParticleLayers,
+ * are drawn directly onto the target between groups of tiled Layers, so Layer order is kept.
+ *
+ * @author Mark F. Russo, Ph.D.
+ * @version 1.0
+ */
+final class TileRenderer
+{
+    /**
+     * Default width and height of a tile in pixels
+     */
+    static final int DEFAULT_TILE_SIZE = 256;
+
+    /**
+     * Width and height of a tile in Pad coordinates
+     */
+    private final int tileSize;
+
+    /**
+     * The pool on which tiles are rendered
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Tile images reused from frame to frame, indexed by row and column on the drawing surface
+     */
+    private BufferedImage[] tileImgs = new BufferedImage[0];
+    private int gridCols = 0;
+
+    /**
+     * Width and height of a tile image in device pixels, enough for a tile at the current device scale
+     */
+    private int tilePixels = 0;
+
+    /**
+     * Shapes assigned to each tile for each Layer of the group being rendered
+     */
+    private final List<List<List<Shape>>> bins = new ArrayList<>();
+
+    /**
+     * Shapes found by a Layer's spatial index in the region being rendered
+     */
+    private final List<Shape> candidates = new ArrayList<>();
+
+    /**
+     * TileRenderer constructor
+     * @param tileSize  Width and height of a tile in pixels
+     * @param pool      The pool on which tiles are rendered
+     */
+    TileRenderer(int tileSize, ForkJoinPool pool) {
+        this.tileSize = Math.max(16, tileSize);
+        this.pool = pool;
+    }
+
+    /**
+     * Return the width and height of a tile in Pad coordinates
+     */
+    int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Draw a region of all Layers onto a Graphics2D object. The background must already be filled.
+     * @param g2        The Graphics2D object on which to draw, in Pad coordinates
+     * @param layers    The Layers to draw, from back to front
+     * @param clip      The region to redraw in Pad coordinates
+     * @param width     The width of the drawing surface
+     * @param height    The height of the drawing surface
+     */
+    void render(Graphics2D g2, Layer[] layers, Rectangle2D clip, int width, int height)
+    {
+        Rectangle region = clip.getBounds().intersection(new Rectangle(0, 0, width, height));
+        if (region.isEmpty()) return;
+
+        // Tiles are only lined up with device pixels when the target is scaled and translated.
+        // Otherwise, such as when rotated, draw every Layer directly.
+        AffineTransform device = g2.getTransform();
+        boolean tiles = (device.getType() & ~(AffineTransform.TYPE_TRANSLATION | AffineTransform.TYPE_MASK_SCALE)) == 0
+                && device.getScaleX() > 0.0 && device.getScaleY() > 0.0;
+
+        int cols = (width + tileSize - 1) / tileSize;
+        int rows = (height + tileSize - 1) / tileSize;
+        int pixels = (int)Math.ceil(tileSize*Math.max(device.getScaleX(), device.getScaleY())) + 1;
+        if (cols != gridCols || tileImgs.length != cols*rows || pixels != tilePixels) {
+            tileImgs = new BufferedImage[cols*rows];
+            gridCols = cols;
+            tilePixels = pixels;
+        }
+
+        // Draw runs of Layers that can be tiled together, and other Layers directly
+        int start = 0;
+        for (int l=0; l<=layers.length; l++) {
+            if (tiles && l < layers.length && layers[l].drawsInTiles()) continue;
+            if (l > start) renderGroup(g2, device, layers, start, l, region);
+            if (l < layers.length) layers[l].draw(g2, clip, width, height);
+            start = l + 1;
+        }
+    }
+
+    /**
+     * Render Layers start to end-1 into tiles in parallel and composite the tiles onto the target
+     */
+    private void renderGroup(Graphics2D g2, AffineTransform device, Layer[] layers, int start, int end, Rectangle region)
+    {
+        int col0 = region.x / tileSize;
+        int row0 = region.y / tileSize;
+        int col1 = (region.x + region.width - 1) / tileSize;
+        int row1 = (region.y + region.height - 1) / tileSize;
+        int tileCols = col1 - col0 + 1;
+        int tileCount = tileCols*(row1 - row0 + 1);
+
+        // Assign each visible Shape to the tiles it overlaps, keeping back to front order within each tile.
+        // Bounds are computed here, on one thread, so tiles only read them.
+        int groupSize = end - start;
+        while (bins.size() < groupSize) bins.add(new ArrayList<>());
+        for (int g=0; g<groupSize; g++) {
+            Layer layer = layers[start + g];
+            List<List<Shape>> layerBins = bins.get(g);
+            while (layerBins.size() < tileCount) layerBins.add(new ArrayList<>());
+            for (int t=0; t<tileCount; t++) layerBins.get(t).clear();
+
+            // On large Layers, only bin the Shapes the spatial index finds in the region
+            Shape[] shapes = layer.snapshot();
+            candidates.clear();
+            boolean indexed = false;
+            try {
+                Rectangle2D layerClip = layer.transform.createInverse().createTransformedShape(region).getBounds2D();
+                indexed = layer.indexCandidates(layerClip, shapes.length, candidates);
+            } catch (NoninvertibleTransformException ex) {
+                // Bin every Shape, each of which is culled by its device bounds
+            }
+
+            int drawn = 0;
+            int culled = indexed ? shapes.length - candidates.size() : 0;
+            int n = indexed ? candidates.size() : shapes.length;
+            for (int i=0; i<n; i++) {
+                Shape s = indexed ? candidates.get(i) : shapes[i];
+                if (!s.visible || s.layer != layer) continue;
+                Rectangle2D.Double b = s.getDeviceBounds();
+                if (!b.intersects(region)) {
+                    culled++;
+                    continue;
+                }
+                s.paintedBounds = b;
+                drawn++;
+
+                int c0 = Math.max(col0, (int)Math.floor(b.getMinX() / tileSize));
+                int c1 = Math.min(col1, (int)Math.floor(b.getMaxX() / tileSize));
+                int r0 = Math.max(row0, (int)Math.floor(b.getMinY() / tileSize));
+                int r1 = Math.min(row1, (int)Math.floor(b.getMaxY() / tileSize));
+                for (int r=r0; r<=r1; r++) {
+                    for (int c=c0; c<=c1; c++) {
+                        layerBins.get((r - row0)*tileCols + (c - col0)).add(s);
+                    }
+                }
+            }
+            layer.shapesDrawn = drawn;
+            layer.shapesCulled = culled;
+        }
+        candidates.clear();
+
+        RenderingHints hints = g2.getRenderingHints();
+        pool.invoke(new TileTask(layers, start, end, region, hints, device, col0, row0, tileCols, 0, tileCount));
+
+        // Composite the tiles in place, one image pixel to one device pixel
+        g2.setTransform(new AffineTransform());
+        try {
+            for (int t=0; t<tileCount; t++) {
+                int c = col0 + t % tileCols;
+                int r = row0 + t / tileCols;
+                Rectangle px = devicePixels(device, c, r);
+                g2.drawImage(tileImgs[r*gridCols + c], px.x, px.y, px.x + px.width, px.y + px.height,
+                             0, 0, px.width, px.height, null);
+            }
+        } finally {
+            g2.setTransform(device);
+        }
+    }
+
+    /**
+     * Return the device pixels covered by a tile. Tile edges are rounded to the nearest pixel boundary,
+     * so neighboring tiles share no pixels and leave no gaps at any scale.
+     */
+    private Rectangle devicePixels(AffineTransform device, int c, int r)
+    {
+        double sx = device.getScaleX(), sy = device.getScaleY();
+        double tx = device.getTranslateX(), ty = device.getTranslateY();
+        int x0 = (int)Math.round(c*tileSize*sx + tx);
+        int y0 = (int)Math.round(r*tileSize*sy + ty);
+        int x1 = (int)Math.round((c + 1)*tileSize*sx + tx);
+        int y1 = (int)Math.round((r + 1)*tileSize*sy + ty);
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /**
+     * Render one tile of a group of Layers into its tile image
+     */
+    private void renderTile(Layer[] layers, int start, int end, Rectangle region, RenderingHints hints,
+                            AffineTransform device, int col0, int row0, int tileCols, int t)
+    {
+        int c = col0 + t % tileCols;
+        int r = row0 + t / tileCols;
+        int idx = r*gridCols + c;
+        BufferedImage img = tileImgs[idx];
+        if (img == null) {
+            img = new BufferedImage(tilePixels, tilePixels, BufferedImage.TYPE_INT_ARGB_PRE);
+            tileImgs[idx] = img;
+        }
+
+        Graphics2D gt = img.createGraphics();
+        try {
+            gt.setComposite(AlphaComposite.Clear);
+            gt.fillRect(0, 0, tilePixels, tilePixels);
+            gt.setComposite(AlphaComposite.SrcOver);
+            gt.setRenderingHints(hints);
+
+            // Clip to the device pixels this tile owns, then work in Pad coordinates at the device scale,
+            // clipped to the part of the region inside this tile
+            Rectangle px = devicePixels(device, c, r);
+            gt.clipRect(0, 0, px.width, px.height);
+            gt.translate(-px.x, -px.y);
+            gt.transform(device);
+            gt.clip(region);
+
+            for (int l=start; l<end; l++) {
+                List<Shape> shapes = bins.get(l - start).get(t);
+                if (shapes.isEmpty()) continue;
+
+                AffineTransform saveTransform = gt.getTransform();
+                gt.transform( layers[l].transform );
+                for (int i=0; i<shapes.size(); i++) {
+                    Shape s = shapes.get(i);
+                    AffineTransform gtat = gt.getTransform();
+                    gt.transform( s.transform );
+                    s.draw(gt);
+                    gt.setTransform(gtat);
+                }
+                gt.setTransform(saveTransform);
+            }
+        } finally {
+            gt.dispose();
+        }
+    }
+
+    /**
+     * Renders a range of tiles, splitting the range until each task renders one tile
+     */
+    private final class TileTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Layer[] layers;
+        private final int start, end;
+        private final Rectangle region;
+        private final RenderingHints hints;
+        private final AffineTransform device;
+        private final int col0, row0, tileCols;
+        private final int from, to;
+
+        TileTask(Layer[] layers, int start, int end, Rectangle region, RenderingHints hints,
+                 AffineTransform device, int col0, int row0, int tileCols, int from, int to) {
+            this.layers = layers;
+            this.start = start;
+            this.end = end;
+            this.region = region;
+            this.hints = hints;
+            this.device = device;
+            this.col0 = col0;
+            this.row0 = row0;
+            this.tileCols = tileCols;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                renderTile(layers, start, end, region, hints, device, col0, row0, tileCols, from);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TileTask(layers, start, end, region, hints, device, col0, row0, tileCols, from, mid),
+                          new TileTask(layers, start, end, region, hints, device, col0, row0, tileCols, mid, to));
+            }
+        }
+    }
+}